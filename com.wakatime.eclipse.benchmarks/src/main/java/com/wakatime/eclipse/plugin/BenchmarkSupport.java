@@ -0,0 +1,208 @@
+package com.wakatime.eclipse.plugin;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.action.MenuManager;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.TextSelection;
+import org.eclipse.jface.viewers.ISelectionProvider;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IEditorSite;
+import org.eclipse.ui.IKeyBindingService;
+import org.eclipse.ui.IPropertyListener;
+import org.eclipse.ui.IURIEditorInput;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchPart;
+import org.eclipse.ui.IWorkbenchPartSite;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+/**
+ * Stand-ins for the workbench objects the heartbeat pipeline talks to.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Installs a WakaTime instance without running the bundle activator,
+     * which needs a running OSGi framework.
+     */
+    static WakaTime installPlugin() throws Exception {
+        if (WakaTime.getDefault() != null) return WakaTime.getDefault();
+
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field f = unsafeClass.getDeclaredField("theUnsafe");
+        f.setAccessible(true);
+        Object unsafe = f.get(null);
+        Method allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+
+        WakaTime plugin = (WakaTime) allocateInstance.invoke(unsafe, WakaTime.class);
+        plugin.IDE_NAME = "eclipse";
+        plugin.ECLIPSE_VERSION = "4.29.0";
+        plugin.DEBUG = false;
+        WakaTime.plugin = plugin;
+        return plugin;
+    }
+
+    static IDocument document(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append("    public void method").append(i).append("() { return; }\n");
+        }
+        return new Document(text.toString());
+    }
+
+    static IProject project(final String name, final String folder) {
+        return stub(IProject.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getName")) return name;
+                if (method.getName().equals("getLocationURI")) return URI.create("file://" + folder);
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    static IEditorPart editor(String path, final IProject project, final IDocument document, final int offset) {
+        final URI uri = URI.create("file://" + path);
+        final IEditorInput input = stub(IURIEditorInput.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getURI")) return uri;
+                if (method.getName().equals("getAdapter") && args[0] == IProject.class) return project;
+                return defaultValue(proxy, method, args);
+            }
+        });
+        final IDocumentProvider provider = stub(IDocumentProvider.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getDocument")) return document;
+                return defaultValue(proxy, method, args);
+            }
+        });
+        final ISelectionProvider selectionProvider = stub(ISelectionProvider.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getSelection")) return new TextSelection(document, offset, 0);
+                return defaultValue(proxy, method, args);
+            }
+        });
+        return new StubEditor(input, provider, new StubSite(selectionProvider));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(BenchmarkSupport.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("equals")) return proxy == args[0];
+        if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+        if (method.getName().equals("toString")) return method.getDeclaringClass().getSimpleName() + " stub";
+
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+
+    /*
+     * Parts and sites are written out by hand: their methods mention SWT
+     * widget types, and a Proxy for them initializes those classes, which
+     * loads the native SWT library.
+     */
+
+    private static class StubEditor implements ITextEditor {
+        private final IEditorInput input;
+        private final IDocumentProvider provider;
+        private final IWorkbenchPartSite site;
+
+        StubEditor(IEditorInput input, IDocumentProvider provider, IWorkbenchPartSite site) {
+            this.input = input;
+            this.provider = provider;
+            this.site = site;
+        }
+
+        @Override public IEditorInput getEditorInput() { return input; }
+        @Override public IWorkbenchPartSite getSite() { return site; }
+        @Override public IDocumentProvider getDocumentProvider() { return provider; }
+        @Override public ISelectionProvider getSelectionProvider() { return site.getSelectionProvider(); }
+
+        @Override
+        public <T> T getAdapter(Class<T> adapter) {
+            return adapter.isInstance(this) ? adapter.cast(this) : null;
+        }
+
+        @Override public IEditorSite getEditorSite() { return null; }
+        @Override public void init(IEditorSite site, IEditorInput input) { }
+        @Override public void addPropertyListener(IPropertyListener listener) { }
+        @Override public void createPartControl(Composite parent) { }
+        @Override public void dispose() { }
+        @Override public String getTitle() { return null; }
+        @Override public Image getTitleImage() { return null; }
+        @Override public String getTitleToolTip() { return null; }
+        @Override public void removePropertyListener(IPropertyListener listener) { }
+        @Override public void setFocus() { }
+        @Override public void doSave(IProgressMonitor monitor) { }
+        @Override public void doSaveAs() { }
+        @Override public boolean isDirty() { return false; }
+        @Override public boolean isSaveAsAllowed() { return false; }
+        @Override public boolean isSaveOnCloseNeeded() { return false; }
+        @Override public void close(boolean save) { }
+        @Override public boolean isEditable() { return true; }
+        @Override public void doRevertToSaved() { }
+        @Override public void setAction(String actionID, IAction action) { }
+        @Override public IAction getAction(String actionId) { return null; }
+        @Override public void setActionActivationCode(String actionId, char activationCharacter, int activationKeyCode, int activationStateMask) { }
+        @Override public void removeActionActivationCode(String actionId) { }
+        @Override public boolean showsHighlightRangeOnly() { return false; }
+        @Override public void showHighlightRangeOnly(boolean showHighlightRangeOnly) { }
+        @Override public void setHighlightRange(int offset, int length, boolean moveCursor) { }
+        @Override public IRegion getHighlightRange() { return null; }
+        @Override public void resetHighlightRange() { }
+        @Override public void selectAndReveal(int offset, int length) { }
+    }
+
+    private static class StubSite implements IWorkbenchPartSite {
+        private final ISelectionProvider selectionProvider;
+
+        StubSite(ISelectionProvider selectionProvider) {
+            this.selectionProvider = selectionProvider;
+        }
+
+        @Override public ISelectionProvider getSelectionProvider() { return selectionProvider; }
+
+        @Override public String getId() { return null; }
+        @Override public String getPluginId() { return null; }
+        @Override public String getRegisteredName() { return null; }
+        @Override public void registerContextMenu(String menuId, MenuManager menuManager, ISelectionProvider selectionProvider) { }
+        @Override public void registerContextMenu(MenuManager menuManager, ISelectionProvider selectionProvider) { }
+        @SuppressWarnings("deprecation")
+        @Override public IKeyBindingService getKeyBindingService() { return null; }
+        @Override public IWorkbenchPart getPart() { return null; }
+        @Override public IWorkbenchPage getPage() { return null; }
+        @Override public Shell getShell() { return null; }
+        @Override public IWorkbenchWindow getWorkbenchWindow() { return null; }
+        @Override public void setSelectionProvider(ISelectionProvider provider) { }
+        @Override public <T> T getAdapter(Class<T> adapter) { return null; }
+        @Override public <T> T getService(Class<T> api) { return null; }
+        @Override public boolean hasService(Class<?> api) { return false; }
+    }
+}
@@ -0,0 +1,102 @@
+package com.wakatime.eclipse.plugin;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConfigFile lookups and updates against a config file the size of a
+ * typical user's, with settings, a project map and git sections.
+ * Runs with user.home pointed at a temporary folder; unset $WAKATIME_HOME
+ * before running or your real config file will be used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigFileBenchmark {
+
+    private File home;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.installPlugin();
+
+        home = Files.createTempDirectory("wakatime-bench").toFile();
+        System.setProperty("user.home", home.getAbsolutePath());
+
+        PrintWriter writer = new PrintWriter(new File(home, ".wakatime.cfg"), "UTF-8");
+        writer.println("[settings]");
+        writer.println("api_key = waka_00000000-0000-0000-0000-000000000000");
+        writer.println("debug = false");
+        writer.println("hidefilenames = false");
+        writer.println("exclude =");
+        writer.println("    ^COMMIT_EDITMSG$");
+        writer.println("    ^TAG_EDITMSG$");
+        writer.println("    ^/var/");
+        writer.println("include = .*");
+        writer.println("offline = true");
+        writer.println("status_bar_enabled = true");
+        writer.println("[projectmap]");
+        for (int i = 0; i < 40; i++) {
+            writer.println("projects/client" + i + "/ = Client " + i);
+        }
+        writer.println("[git]");
+        writer.println("submodules_disabled = false");
+        writer.println("[internal]");
+        writer.println("heartbeat_batch_size = 25");
+        writer.close();
+
+        PrintWriter internal = new PrintWriter(new File(home, ".wakatime-internal.cfg"), "UTF-8");
+        internal.println("[internal]");
+        internal.println("cli_version = v1.73.0");
+        internal.println("cli_version_last_modified = Mon, 02 Oct 2023 12:00:00 GMT");
+        internal.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : home.listFiles()) file.delete();
+        home.delete();
+    }
+
+    @Benchmark
+    public String getFirstSection() {
+        return ConfigFile.get("settings", "debug", false);
+    }
+
+    @Benchmark
+    public String getLastSection() {
+        return ConfigFile.get("internal", "heartbeat_batch_size", false);
+    }
+
+    @Benchmark
+    public String getMissing() {
+        return ConfigFile.get("settings", "proxy", false);
+    }
+
+    @Benchmark
+    public String getInternal() {
+        return ConfigFile.get("internal", "cli_version", true);
+    }
+
+    @Benchmark
+    public void setInternal() {
+        ConfigFile.set("internal", "cli_version", true, "v1.73.0");
+    }
+}
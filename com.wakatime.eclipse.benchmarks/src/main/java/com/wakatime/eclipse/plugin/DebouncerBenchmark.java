@@ -0,0 +1,88 @@
+package com.wakatime.eclipse.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rescheduling cost of Debouncer when several threads hit it at once,
+ * against the previous ScheduledExecutorService design. The delay is long
+ * enough that tasks never run during the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class DebouncerBenchmark {
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Param({ "wheel", "scheduled" })
+    public String implementation;
+
+    private Debouncer<Object> debouncer;
+    private ScheduledDebouncer scheduled;
+
+    @State(Scope.Thread)
+    public static class ThreadKey {
+        String key;
+
+        @Setup
+        public void setup() {
+            key = "key-" + Thread.currentThread().getId();
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.installPlugin();
+        if (implementation.equals("wheel")) {
+            debouncer = new Debouncer<Object>();
+        } else {
+            scheduled = new ScheduledDebouncer();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (debouncer != null) debouncer.shutdown();
+        if (scheduled != null) scheduled.shutdown();
+    }
+
+    @Benchmark
+    public void sharedKey() {
+        debounce("auto-build");
+    }
+
+    @Benchmark
+    public void keyPerThread(ThreadKey threadKey) {
+        debounce(threadKey.key);
+    }
+
+    private void debounce(String key) {
+        if (debouncer != null) {
+            debouncer.debounce(key, NOOP, 1, TimeUnit.HOURS);
+        } else {
+            scheduled.debounce(key, NOOP, 1, TimeUnit.HOURS);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.wakatime.eclipse.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs Dependencies.downloadFile against a local HTTP stub which can drop
+ * the connection part way through a response, and checks the checksum
+ * verification. Not a benchmark, run it from the shaded jar:
+ *
+ *     java -cp com.wakatime.eclipse.benchmarks/target/benchmarks.jar com.wakatime.eclipse.plugin.DownloadChecks
+ *
+ * Exits with an AssertionError on the first failed check.
+ */
+public class DownloadChecks {
+
+    private static final String ARCHIVE_NAME = "wakatime-cli-linux-amd64.zip";
+    private static final int ARCHIVE_SIZE = 300000;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkSupport.installPlugin();
+
+        byte[] archive = new byte[ARCHIVE_SIZE];
+        new Random(1).nextBytes(archive);
+        File dir = Files.createTempDirectory("wakatime-download").toFile();
+        StubServer server = new StubServer(archive);
+        try {
+            String url = "http://127.0.0.1:" + server.getPort() + "/" + ARCHIVE_NAME;
+            resumesAfterDroppedConnection(server, url, new File(dir, "resume.zip"), archive);
+            acceptsCompletePartFile(server, url, new File(dir, "complete.zip"), archive);
+            restartsMismatchedPartFile(server, url, new File(dir, "mismatch.zip"), archive);
+            deletesPartFileOfOtherRelease(server, url, new File(dir, "release.zip"), archive);
+            verifiesChecksums(new File(dir, "resume.zip"), archive);
+        } finally {
+            server.close();
+            for (File file : dir.listFiles()) file.delete();
+            dir.delete();
+        }
+        System.out.println("All download checks passed.");
+    }
+
+    private static void resumesAfterDroppedConnection(StubServer server, String url, File out, byte[] archive) throws Exception {
+        server.reset(100000);
+        check(Dependencies.downloadFile(url, out.getPath()), "download after a dropped connection succeeds");
+        check(Arrays.equals(Files.readAllBytes(out.toPath()), archive), "resumed download matches the archive");
+
+        List<String> ranges = server.getRanges();
+        check(ranges.size() == 2, "resumed with one more request, got " + ranges);
+        check(ranges.get(0) == null, "first request has no Range header");
+        check(ranges.get(1) != null && !ranges.get(1).equals("bytes=0-"), "second request resumes with a Range header, got " + ranges.get(1));
+        check(!partFile(out, url).exists(), "part file is renamed once complete");
+        System.out.println("resume after dropped connection: ok " + ranges);
+    }
+
+    /**
+     * A previous run finished the download but stopped before renaming it.
+     */
+    private static void acceptsCompletePartFile(StubServer server, String url, File out, byte[] archive) throws Exception {
+        Files.write(partFile(out, url).toPath(), archive);
+        server.reset(-1);
+        check(Dependencies.downloadFile(url, out.getPath()), "download of a complete part file succeeds");
+        check(Arrays.equals(Files.readAllBytes(out.toPath()), archive), "complete part file is kept");
+        check(server.getRanges().equals(Collections.singletonList("bytes=" + ARCHIVE_SIZE + "-")), "one 416 request, got " + server.getRanges());
+        System.out.println("416 for a complete part file: ok " + server.getRanges());
+    }
+
+    /**
+     * A part file longer than the archive can not be part of it.
+     */
+    private static void restartsMismatchedPartFile(StubServer server, String url, File out, byte[] archive) throws Exception {
+        Files.write(partFile(out, url).toPath(), new byte[ARCHIVE_SIZE + 1000]);
+        server.reset(-1);
+        check(Dependencies.downloadFile(url, out.getPath()), "download after a mismatched 416 succeeds");
+        check(Arrays.equals(Files.readAllBytes(out.toPath()), archive), "mismatched part file is replaced");
+        check(server.getRanges().equals(Arrays.asList("bytes=" + (ARCHIVE_SIZE + 1000) + "-", null)), "starts over after the 416, got " + server.getRanges());
+        System.out.println("416 for a mismatched part file: ok " + server.getRanges());
+    }
+
+    private static void deletesPartFileOfOtherRelease(StubServer server, String url, File out, byte[] archive) throws Exception {
+        File stale = new File(out.getPath() + ".deadbeef.part");
+        Files.write(stale.toPath(), new byte[1000]);
+        server.reset(-1);
+        check(Dependencies.downloadFile(url, out.getPath()), "download next to another release's part file succeeds");
+        check(Arrays.equals(Files.readAllBytes(out.toPath()), archive), "download matches the archive");
+        check(!stale.exists(), "other release's part file is deleted");
+        check(server.getRanges().equals(Collections.singletonList(null)), "other release's part file is not resumed, got " + server.getRanges());
+        System.out.println("part file of another release: ok " + server.getRanges());
+    }
+
+    private static void verifiesChecksums(File file, byte[] archive) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(archive)) hex.append(String.format("%02x", b));
+        String sha = hex.toString();
+        String other = "0000000000000000000000000000000000000000000000000000000000000000  wakatime-cli-darwin-arm64.zip\n";
+
+        check(Dependencies.verifyChecksum(file, ARCHIVE_NAME, other + sha + "  " + ARCHIVE_NAME + "\n"), "matching checksum is accepted");
+        check(Dependencies.verifyChecksum(file, ARCHIVE_NAME, sha.toUpperCase() + " *./" + ARCHIVE_NAME), "binary mode and directory prefix are accepted");
+        check(!Dependencies.verifyChecksum(file, ARCHIVE_NAME, other), "missing checksum is refused");
+        check(!Dependencies.verifyChecksum(file, ARCHIVE_NAME, other.replace("wakatime-cli-darwin-arm64.zip", ARCHIVE_NAME)), "wrong checksum is refused");
+        check(!Dependencies.verifyChecksum(file, ARCHIVE_NAME, ""), "empty checksums file is refused");
+        System.out.println("checksums: ok");
+    }
+
+    private static File partFile(File out, String url) {
+        return new File(out.getPath() + "." + Integer.toHexString(url.hashCode()) + ".part");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new AssertionError(what);
+    }
+
+    /**
+     * Serves one file, honouring Range requests, one request per
+     * connection. After reset(dropAfter) the next response is cut off
+     * after dropAfter bytes of body.
+     */
+    private static class StubServer implements Runnable {
+        private final byte[] body;
+        private final ServerSocket socket;
+        private final List<String> ranges = new ArrayList<String>();
+        private int dropAfter = -1;
+
+        StubServer(byte[] body) throws IOException {
+            this.body = body;
+            this.socket = new ServerSocket(0);
+            Thread thread = new Thread(this, "Download stub");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        synchronized void reset(int dropAfter) {
+            this.dropAfter = dropAfter;
+            ranges.clear();
+        }
+
+        synchronized List<String> getRanges() {
+            return new ArrayList<String>(ranges);
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket connection = socket.accept();
+                    try {
+                        serve(connection);
+                    } finally {
+                        connection.close();
+                    }
+                } catch (IOException e) {
+                    // closed, or the client went away
+                }
+            }
+        }
+
+        private void serve(Socket connection) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "ISO-8859-1"));
+            String range = null;
+            String line = in.readLine();
+            while (line != null && !line.isEmpty()) {
+                if (line.toLowerCase().startsWith("range:")) range = line.substring(6).trim();
+                line = in.readLine();
+            }
+
+            int drop;
+            synchronized (this) {
+                ranges.add(range);
+                drop = dropAfter;
+                dropAfter = -1;
+            }
+
+            int start = range != null ? Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-'))) : 0;
+            StringBuilder headers = new StringBuilder();
+            if (start >= body.length) {
+                headers.append("HTTP/1.1 416 Range Not Satisfiable\r\n");
+                headers.append("Content-Range: bytes */").append(body.length).append("\r\n");
+                headers.append("Content-Length: 0\r\n");
+            } else if (start > 0) {
+                headers.append("HTTP/1.1 206 Partial Content\r\n");
+                headers.append("Content-Range: bytes ").append(start).append('-').append(body.length - 1).append('/').append(body.length).append("\r\n");
+                headers.append("Content-Length: ").append(body.length - start).append("\r\n");
+            } else {
+                headers.append("HTTP/1.1 200 OK\r\n");
+                headers.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            headers.append("Connection: close\r\n\r\n");
+
+            OutputStream out = connection.getOutputStream();
+            out.write(headers.toString().getBytes("ISO-8859-1"));
+            if (start < body.length) {
+                int end = drop >= 0 ? Math.min(body.length, start + drop) : body.length;
+                out.write(body, start, end - start);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.wakatime.eclipse.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.ui.IEditorPart;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-event cost of turning editor activity into a heartbeat. The state is
+ * set up so a heartbeat was just sent for the same editor, which is the
+ * common case while typing: the throttle rejects the event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeartbeatBenchmark {
+
+    private static final String PATH = "/home/dev/workspace/project/src/main/java/com/example/Service.java";
+
+    private WakaTime plugin;
+    private IEditorPart editor;
+    private Heartbeat heartbeat;
+
+    @Setup
+    public void setup() throws Exception {
+        plugin = BenchmarkSupport.installPlugin();
+        IProject project = BenchmarkSupport.project("project", "/home/dev/workspace/project");
+        editor = BenchmarkSupport.editor(PATH, project, BenchmarkSupport.document(2000), 40000);
+
+        heartbeat = WakaTime.getHeartbeat(editor, false);
+        heartbeat.enrich();
+        plugin.lastFile = heartbeat.entity;
+        plugin.lastEntityKey = heartbeat.entityKey;
+        plugin.lastIsBuilding = false;
+        plugin.lastTime = Long.MAX_VALUE - WakaTime.FREQUENCY;
+    }
+
+    @Benchmark
+    public Heartbeat construct() {
+        return new Heartbeat(PATH, false, editor, false, false);
+    }
+
+    /**
+     * The part of building a heartbeat which runs on the UI thread.
+     */
+    @Benchmark
+    public Heartbeat getHeartbeat() {
+        return WakaTime.getHeartbeat(editor, false);
+    }
+
+    /**
+     * The UI thread snapshot plus the enrichment done on the dispatcher thread.
+     */
+    @Benchmark
+    public Heartbeat getHeartbeatAndEnrich() {
+        Heartbeat heartbeat = WakaTime.getHeartbeat(editor, false);
+        heartbeat.enrich();
+        return heartbeat;
+    }
+
+    @Benchmark
+    public String[] toCliCommands() {
+        return heartbeat.toCliCommands();
+    }
+
+    @Benchmark
+    public String toJson() {
+        return heartbeat.toJson();
+    }
+
+    @Benchmark
+    public boolean canSend() {
+        return heartbeat.canSend();
+    }
+
+    @Benchmark
+    public boolean enoughTimePassed() {
+        return heartbeat.enoughTimePassed();
+    }
+
+    @Benchmark
+    public boolean shouldSendHeartbeat() {
+        return WakaTime.shouldSendHeartbeat(editor, false);
+    }
+
+    /**
+     * A throttled keystroke handled by building the heartbeat first.
+     */
+    @Benchmark
+    public void keystrokeBuildThenThrottle() {
+        WakaTime.processHeartbeat(WakaTime.getHeartbeat(editor, false));
+    }
+
+    /**
+     * A throttled keystroke handled the way the editor listeners do it.
+     */
+    @Benchmark
+    public void keystrokePrecheck() {
+        if (!WakaTime.shouldSendHeartbeat(editor, false)) return;
+        WakaTime.processHeartbeat(WakaTime.getHeartbeat(editor, false));
+    }
+}
@@ -0,0 +1,76 @@
+package com.wakatime.eclipse.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Journal throughput in heartbeats per second: each invocation appends a
+ * batch of heartbeats and replays them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeartbeatJournalBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private File file;
+    private HeartbeatJournal journal;
+    private List<Heartbeat> heartbeats;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.installPlugin();
+
+        file = File.createTempFile("wakatime-bench", ".journal");
+        journal = new HeartbeatJournal(file, 4 * 1024 * 1024);
+
+        heartbeats = new ArrayList<Heartbeat>();
+        for (int i = 0; i < BATCH; i++) {
+            Heartbeat heartbeat = new Heartbeat();
+            heartbeat.entity = "/home/dev/workspace/project/src/main/java/com/example/Service" + (i % 20) + ".java";
+            heartbeat.entityType = "file";
+            heartbeat.timestamp = 1700000000000L + i * 1000L;
+            heartbeat.projectName = "project";
+            heartbeat.projectFolder = "/home/dev/workspace/project";
+            heartbeat.isWrite = i % 10 == 0;
+            heartbeat.lineCount = 2000;
+            heartbeat.lineNumber = i % 2000 + 1;
+            heartbeat.cursorPosition = i % 80 + 1;
+            heartbeats.add(heartbeat);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        journal.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Heartbeat> appendAndReplay() {
+        journal.append(heartbeats);
+        List<Heartbeat> replayed = journal.drain();
+        journal.release();
+        return replayed;
+    }
+}
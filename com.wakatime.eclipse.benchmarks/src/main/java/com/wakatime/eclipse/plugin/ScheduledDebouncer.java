@@ -0,0 +1,34 @@
+package com.wakatime.eclipse.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The previous Debouncer, one ScheduledFuture per call cancelled by the
+ * next one. Kept as the baseline for DebouncerBenchmark.
+ */
+public class ScheduledDebouncer {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ConcurrentHashMap<String, Future<?>> delayedMap = new ConcurrentHashMap<String, Future<?>>();
+
+    public void debounce(final String key, final Runnable runnable, long delay, TimeUnit unit) {
+        final Future<?> prev = delayedMap.put(key, scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    delayedMap.remove(key);
+                }
+            }
+        }, delay, unit));
+        if (prev != null) prev.cancel(true);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
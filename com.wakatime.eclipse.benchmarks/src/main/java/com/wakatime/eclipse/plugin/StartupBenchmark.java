@@ -0,0 +1,126 @@
+package com.wakatime.eclipse.plugin;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long earlyStartup's UI runnable keeps the UI thread from handling
+ * the next event because of the wakatime-cli check, with wakatime-cli
+ * installed and up to date. The benchmark thread stands in for the UI
+ * thread: uiThreadCheckCLI runs the check inline as earlyStartup used
+ * to, uiThreadScheduleCheckCLI hands it to a background thread as the
+ * Job does now. The rest of the UI runnable is the same in both and
+ * needs a workbench, so it is left out.
+ *
+ * With versionCheck=due the version check TTL has expired, so the check
+ * runs wakatime-cli --version, a shell script here; the real Go binary
+ * takes longer to start. The GitHub release lookup is answered from
+ * memory, so the inline numbers are a lower bound: on a real network the
+ * lookup adds a round trip, and a missing or outdated wakatime-cli adds
+ * the download. Runs with user.home pointed at a temporary folder; unset
+ * $WAKATIME_HOME and $WAKATIME_CLI_LOCATION before running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final String VERSION = "v1.0.0";
+
+    @Param({"due", "cached"})
+    public String versionCheck;
+
+    private ExecutorService job;
+    private Future<?> pending;
+    private Field cliVersion;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.installPlugin();
+
+        File home = Files.createTempDirectory("wakatime-bench").toFile();
+        System.setProperty("user.home", home.getAbsolutePath());
+        new File(home, ".wakatime").mkdirs();
+
+        File cli = new File(Dependencies.getCLILocation());
+        PrintWriter writer = new PrintWriter(cli, "UTF-8");
+        writer.println("#!/bin/sh");
+        writer.println("echo " + VERSION);
+        writer.close();
+        cli.setExecutable(true);
+
+        cliVersion = Dependencies.class.getDeclaredField("cliVersion");
+        cliVersion.setAccessible(true);
+        cliVersion.set(null, VERSION);
+        checkCLI();
+
+        job = Executors.newSingleThreadExecutor();
+    }
+
+    @Setup(Level.Invocation)
+    public void expireVersionCheck() throws Exception {
+        if (!versionCheck.equals("due")) return;
+        Dependencies.resetCLIVersionCheck();
+        cliVersion.set(null, VERSION);
+    }
+
+    /**
+     * Waits for the background check, so it never overlaps the next invocation.
+     */
+    @TearDown(Level.Invocation)
+    public void awaitJob() throws Exception {
+        if (pending != null) pending.get();
+        pending = null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        job.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean uiThreadCheckCLI() {
+        return checkCLI();
+    }
+
+    @Benchmark
+    public Future<?> uiThreadScheduleCheckCLI() {
+        pending = job.submit(new Runnable() {
+            @Override
+            public void run() {
+                checkCLI();
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * The calls checkCLI makes when wakatime-cli is installed.
+     */
+    private static boolean checkCLI() {
+        return Dependencies.isCLIInstalled() && Dependencies.isCLIOld();
+    }
+}
@@ -0,0 +1,89 @@
+/* ==========================================================
+File:        AutoBuildListener.java
+Description: Tracks whether an auto-build is running.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
+
+/**
+ * Listens for the workspace's PRE_BUILD and POST_BUILD events of
+ * auto-builds only, so other jobs never reach the plugin. The events just
+ * debounce a state change; the heartbeat is built on the UI thread once
+ * the change fires, so short auto-builds cost nothing.
+ */
+public class AutoBuildListener implements IResourceChangeListener {
+
+    public void install() {
+        try {
+            ResourcesPlugin.getWorkspace().addResourceChangeListener(this,
+                    IResourceChangeEvent.PRE_BUILD | IResourceChangeEvent.POST_BUILD);
+        } catch (Exception e) {
+            Logger.debug(e);
+        }
+    }
+
+    public void uninstall() {
+        try {
+            ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+        } catch (Exception e) {
+            Logger.debug(e);
+        }
+    }
+
+    @Override
+    public void resourceChanged(IResourceChangeEvent event) {
+        if (event.getBuildKind() != IncrementalProjectBuilder.AUTO_BUILD) return;
+
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime == null) return;
+
+        if (event.getType() == IResourceChangeEvent.PRE_BUILD) {
+            // Logger.debug("Auto-build about to run.");
+            wakatime.scheduler.debounce("auto-build", new Runnable() {
+                @Override public void run() {
+                    WakaTime.getDefault().isAutoBuilding = true;
+                    sendHeartbeat(true);
+                    WakaTime.startWatchingAutoBuild();
+                }
+            }, WakaTime.BUILD_THRESHOLD, TimeUnit.SECONDS);
+        } else if (event.getType() == IResourceChangeEvent.POST_BUILD) {
+            // Logger.debug("Auto-build completed.");
+            wakatime.scheduler.debounce("auto-build", new Runnable() {
+                @Override public void run() {
+                    WakaTime.getDefault().isAutoBuilding = false;
+                    sendHeartbeat(false);
+                    WakaTime.stopWatchingAutoBuild();
+                }
+            }, 1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The active editor can only be read on the UI thread.
+     */
+    private static void sendHeartbeat(final boolean isBuilding) {
+        Display display = PlatformUI.getWorkbench().getDisplay();
+        if (display == null || display.isDisposed()) return;
+
+        display.asyncExec(new Runnable() {
+            public void run() {
+                if (WakaTime.getDefault() == null) return;
+                Heartbeat heartbeat = WakaTime.getHeartbeat(null, false, isBuilding);
+                WakaTime.processHeartbeat(heartbeat);
+            }
+        });
+    }
+}
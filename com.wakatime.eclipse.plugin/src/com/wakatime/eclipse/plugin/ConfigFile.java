@@ -2,17 +2,49 @@ package com.wakatime.eclipse.plugin;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class ConfigFile {
     private static final String fileName = ".wakatime.cfg";
     private static final String internalFileName = ".wakatime-internal.cfg";
     private static String cachedConfigFile = null;
     private static String _api_key = "";
+    private static final long CHECK_INTERVAL = 1000;
+    private static volatile ParsedFile parsedConfig = null;
+    private static volatile ParsedFile parsedInternal = null;
+
+    // applied by wakatime-cli, see getCLIOnlySetting
+    private static final String[] CLI_ONLY_SETTINGS = {
+        "exclude", "include", "include_only_with_project_file", "exclude_unknown_project",
+        "hidefilenames", "hide_file_names", "hide_project_names", "hide_branch_names", "hide_project_folder"
+    };
+    private static final String[] CLI_ONLY_SECTIONS = { "projectmap", "project_api_key" };
+
+    private static class ParsedFile {
+        final HashMap<String, HashMap<String, String>> sections = new HashMap<String, HashMap<String, String>>();
+        final long lastModified;
+        final long length;
+        volatile long checkedAt;
+
+        ParsedFile(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
 
     private static String getConfigFilePath(boolean internal) {
         if (ConfigFile.cachedConfigFile == null) {
@@ -31,24 +63,70 @@ public class ConfigFile {
     }
 
     public static String get(String section, String key, boolean internal) {
-        String file = ConfigFile.getConfigFilePath(internal);
-        String val = null;
+        Metrics.CONFIG_READS.increment();
+        HashMap<String, String> values = load(internal).sections.get(section.toLowerCase());
+        if (values == null) return null;
+        return values.get(key);
+    }
+
+    /**
+     * Returns the parsed config file, parsing it again if it changed on disk.
+     * The file is checked at most once per CHECK_INTERVAL, so lookups are
+     * usually plain map reads.
+     */
+    private static ParsedFile load(boolean internal) {
+        ParsedFile parsed = internal ? ConfigFile.parsedInternal : ConfigFile.parsedConfig;
+        long now = System.currentTimeMillis();
+        if (parsed != null && now - parsed.checkedAt < CHECK_INTERVAL) return parsed;
+
+        File file = new File(ConfigFile.getConfigFilePath(internal));
+        if (parsed != null && parsed.lastModified == file.lastModified() && parsed.length == file.length()) {
+            parsed.checkedAt = now;
+            return parsed;
+        }
+
+        parsed = parse(file);
+        parsed.checkedAt = now;
+        if (internal) {
+            ConfigFile.parsedInternal = parsed;
+        } else {
+            ConfigFile.parsedConfig = parsed;
+        }
+        return parsed;
+    }
+
+    private static void invalidate(boolean internal) {
+        if (internal) {
+            ConfigFile.parsedInternal = null;
+        } else {
+            ConfigFile.parsedConfig = null;
+        }
+    }
+
+    private static ParsedFile parse(File file) {
+        ParsedFile parsed = new ParsedFile(file.lastModified(), file.length());
         try {
             BufferedReader br = new BufferedReader(new FileReader(file));
-            String currentSection = "";
+            HashMap<String, String> values = null;
             try {
                 String line = br.readLine();
                 while (line != null) {
                     if (line.trim().startsWith("[") && line.trim().endsWith("]")) {
-                        currentSection = line.trim().substring(1, line.trim().length() - 1).toLowerCase();
-                    } else {
-                        if (section.toLowerCase().equals(currentSection)) {
-                            String[] parts = line.split("=");
-                            if (parts.length == 2 && parts[0].trim().equals(key)) {
-                                val = parts[1].trim();
-                                br.close();
-                                return removeNulls(val);
-                            }
+                        String currentSection = line.trim().substring(1, line.trim().length() - 1).toLowerCase();
+                        values = parsed.sections.get(currentSection);
+                        if (values == null) {
+                            values = new HashMap<String, String>();
+                            parsed.sections.put(currentSection, values);
+                        }
+                    } else if (values != null) {
+                        String[] parts = line.split("=");
+                        if (parts.length == 2) {
+                            String key = parts[0].trim();
+                            if (!values.containsKey(key)) values.put(key, removeNulls(parts[1].trim()));
+                        } else if (parts.length == 1 && line.trim().endsWith("=")) {
+                            // the value continues on the following lines, as with exclude and include
+                            String key = parts[0].trim();
+                            if (!values.containsKey(key)) values.put(key, "");
                         }
                     }
                     line = br.readLine();
@@ -63,82 +141,181 @@ public class ConfigFile {
                 }
             }
         } catch (FileNotFoundException e1) { /* ignored */ }
-        return removeNulls(val);
+        return parsed;
     }
 
     public static void set(String section, String key, boolean internal, String val) {
-        key = removeNulls(key);
-        val = removeNulls(val);
+        LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
+        values.put(key, val);
+        set(section, internal, values);
+    }
 
-        String file = ConfigFile.getConfigFilePath(internal);
-        StringBuilder contents = new StringBuilder();
+    /**
+     * Sets several keys of one section in a single write. The new contents
+     * are written to a temp file, synced, and renamed over the config file,
+     * so no reader ever sees a partially written file.
+     *
+     * The rewrite holds a lock on a sidecar .lock file, which is deleted
+     * afterwards. Only Eclipse processes running this plugin take that
+     * lock; wakatime-cli and other editor plugins do not, so a change they
+     * make while the file is being rewritten can still be lost.
+     */
+    public static void set(String section, boolean internal, Map<String, String> values) {
+        LinkedHashMap<String, String> pending = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            pending.put(removeNulls(entry.getKey()), removeNulls(entry.getValue()));
+        }
+
+        File file = new File(ConfigFile.getConfigFilePath(internal));
         try {
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            try {
-                String currentSection = "";
-                String line = br.readLine();
-                Boolean found = false;
-                while (line != null) {
-                    line = removeNulls(line);
-                    if (line.trim().startsWith("[") && line.trim().endsWith("]")) {
-                        if (section.toLowerCase().equals(currentSection) && !found) {
-                            contents.append(key + " = " + val + "\n");
-                            found = true;
-                        }
-                        currentSection = line.trim().substring(1, line.trim().length() - 1).toLowerCase();
-                        contents.append(line + "\n");
-                    } else {
-                        if (section.toLowerCase().equals(currentSection)) {
-                            String[] parts = line.split("=");
-                            String currentKey = parts[0].trim();
-                            if (currentKey.equals(key)) {
-                                if (!found) {
-                                    contents.append(key + " = " + val + "\n");
-                                    found = true;
-                                }
-                            } else {
-                                contents.append(line + "\n");
-                            }
-                        } else {
-                            contents.append(line + "\n");
-                        }
-                    }
-                    line = br.readLine();
-                }
-                if (!found) {
-                    if (!section.toLowerCase().equals(currentSection)) {
-                        contents.append("[" + section.toLowerCase() + "]\n");
-                    }
-                    contents.append(key + " = " + val + "\n");
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
+            // write through symlinks, e.g. a config kept in a dotfiles repo
+            if (file.exists()) file = file.toPath().toRealPath().toFile();
+        } catch (IOException e) {
+            Logger.debug(e);
+        }
+
+        File lockPath = new File(file.getPath() + ".lock");
+        RandomAccessFile lockFile = null;
+        try {
+            lockFile = lock(lockPath);
+
+            String contents = rewrite(file, section.toLowerCase(), pending);
+            replace(file, contents);
+        } catch (IOException e) {
+            Logger.warn(e);
+        } finally {
+            if (lockFile != null) {
+                // still locked, so a waiting writer sees the file is gone and locks a new one
+                lockPath.delete();
                 try {
-                    br.close();
+                    lockFile.close();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    Logger.debug(e);
                 }
             }
-        } catch (FileNotFoundException e1) {
+            invalidate(internal);
+        }
+    }
 
-            // cannot read config file, so create it
-            contents = new StringBuilder();
-            contents.append("[" + section.toLowerCase() + "]\n");
-            contents.append(key + " = " + val + "\n");
+    /**
+     * Locks lockPath, retrying when the previous holder deleted the file
+     * while this process waited for it.
+     */
+    private static RandomAccessFile lock(File lockPath) throws IOException {
+        while (true) {
+            RandomAccessFile lockFile = new RandomAccessFile(lockPath, "rw");
+            try {
+                Object opened = fileKey(lockPath);
+                lockFile.getChannel().lock();
+                Object locked = fileKey(lockPath);
+                if (opened != null ? opened.equals(locked) : locked == null && lockPath.exists()) return lockFile;
+            } catch (IOException e) {
+                lockFile.close();
+                throw e;
+            }
+            lockFile.close();
+        }
+    }
+
+    /**
+     * Identifies the file behind a path, null if it does not exist or, as
+     * on Windows, the file system has no file keys. Windows does not let
+     * an open lock file be deleted in the first place.
+     */
+    private static Object fileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
         }
+    }
 
-        PrintWriter writer = null;
+    private static String rewrite(File file, String section, Map<String, String> values) throws IOException {
+        HashSet<String> written = new HashSet<String>();
+        StringBuilder contents = new StringBuilder();
+        String currentSection = "";
+
+        BufferedReader br;
         try {
-            writer = new PrintWriter(file, "UTF-8");
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
         } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+            // cannot read config file, so create it
+            contents.append("[" + section + "]\n");
+            appendMissing(contents, values, written);
+            return contents.toString();
         }
-        if (writer != null) {
-            writer.print(contents.toString());
-            writer.close();
+
+        try {
+            String line = br.readLine();
+            while (line != null) {
+                line = removeNulls(line);
+                if (line.trim().startsWith("[") && line.trim().endsWith("]")) {
+                    if (section.equals(currentSection)) appendMissing(contents, values, written);
+                    currentSection = line.trim().substring(1, line.trim().length() - 1).toLowerCase();
+                    contents.append(line + "\n");
+                } else if (section.equals(currentSection)) {
+                    String currentKey = line.split("=")[0].trim();
+                    if (values.containsKey(currentKey)) {
+                        if (written.add(currentKey)) contents.append(currentKey + " = " + values.get(currentKey) + "\n");
+                    } else {
+                        contents.append(line + "\n");
+                    }
+                } else {
+                    contents.append(line + "\n");
+                }
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+
+        if (written.size() < values.size()) {
+            if (!section.equals(currentSection)) contents.append("[" + section + "]\n");
+            appendMissing(contents, values, written);
+        }
+        return contents.toString();
+    }
+
+    private static void appendMissing(StringBuilder contents, Map<String, String> values, HashSet<String> written) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (written.add(entry.getKey())) contents.append(entry.getKey() + " = " + entry.getValue() + "\n");
+        }
+    }
+
+    private static void replace(File file, String contents) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        // created owner-only on POSIX, since the config holds the api key
+        File temp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp").toFile();
+        copyPermissions(file, temp);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(contents.getBytes("UTF-8"));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (temp.exists()) temp.delete();
+        }
+    }
+
+    /**
+     * Keeps the mode of the file being replaced, where the file system has POSIX permissions.
+     */
+    private static void copyPermissions(File from, File to) {
+        if (!from.exists()) return;
+        try {
+            Files.setPosixFilePermissions(to.toPath(), Files.getPosixFilePermissions(from.toPath()));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+        } catch (IOException e) {
+            Logger.debug(e);
         }
     }
 
@@ -159,6 +336,121 @@ public class ConfigFile {
         ConfigFile._api_key = apiKey;
     }
 
+    /**
+     * Milliseconds to collect heartbeats before sending them with one wakatime-cli call.
+     */
+    public static long getHeartbeatBatchWindow() {
+        return getLong("settings", "heartbeat_batch_window", false, 4000);
+    }
+
+    /**
+     * Maximum number of heartbeats sent with one wakatime-cli call.
+     */
+    public static int getHeartbeatBatchSize() {
+        return (int) getLong("settings", "heartbeat_batch_size", false, 25);
+    }
+
+    /**
+     * Maximum number of heartbeats waiting to be sent before old ones are dropped.
+     */
+    public static int getHeartbeatQueueSize() {
+        return (int) getLong("settings", "heartbeat_queue_size", false, 500);
+    }
+
+    /**
+     * Maximum number of wakatime-cli calls per dispatch_rate_window, 0 for no limit.
+     */
+    public static int getDispatchRateLimit() {
+        return (int) getLong("settings", "dispatch_rate_limit", false, 10, 0);
+    }
+
+    /**
+     * Seconds over which dispatch_rate_limit calls are allowed.
+     */
+    public static long getDispatchRateWindow() {
+        return getLong("settings", "dispatch_rate_window", false, 60);
+    }
+
+    /**
+     * Maximum size in bytes of the journal holding heartbeats which could not be sent yet.
+     */
+    public static int getHeartbeatJournalSize() {
+        return (int) getLong("settings", "heartbeat_journal_size", false, 1024 * 1024);
+    }
+
+    /**
+     * Milliseconds to trust a verified wakatime-cli version before checking again.
+     */
+    public static long getCLIVersionCheckTTL() {
+        return getLong("settings", "cli_version_check_ttl", false, 24 * 60 * 60) * 1000;
+    }
+
+    /**
+     * Milliseconds without keyboard or mouse input after which build keep-alive heartbeats stop.
+     */
+    public static long getIdleThreshold() {
+        return getLong("settings", "idle_threshold", false, 15 * 60) * 1000;
+    }
+
+    /**
+     * True to detect editor activity with one Display filter instead of listeners on every editor.
+     */
+    public static boolean isActivityFilterEnabled() {
+        String val = get("settings", "activity_filter", false);
+        return val != null && val.trim().equals("true");
+    }
+
+    /**
+     * True to post heartbeats to api_url directly instead of starting wakatime-cli.
+     */
+    public static boolean isNativeSenderEnabled() {
+        String val = get("settings", "native_sender", false);
+        return val != null && val.trim().equals("true");
+    }
+
+    /**
+     * Returns the first setting which only wakatime-cli applies before
+     * sending, such as exclude or hide_file_names, or null when none is set.
+     * The native sender posts heartbeats as they are, so it must not be
+     * used while one of these is set.
+     */
+    public static String getCLIOnlySetting() {
+        for (String key : CLI_ONLY_SETTINGS) {
+            String val = get("settings", key, false);
+            if (val != null && !val.trim().equalsIgnoreCase("false")) return key;
+        }
+        for (String section : CLI_ONLY_SECTIONS) {
+            HashMap<String, String> values = load(false).sections.get(section);
+            if (values != null && !values.isEmpty()) return "[" + section + "]";
+        }
+        return null;
+    }
+
+    public static String getApiUrl() {
+        String val = get("settings", "api_url", false);
+        if (val == null || val.trim().equals("")) return ApiSender.DEFAULT_API_URL;
+        return val.trim();
+    }
+
+    private static long getLong(String section, String key, boolean internal, long defaultValue) {
+        return getLong(section, key, internal, defaultValue, 1);
+    }
+
+    /**
+     * Values below min are treated as missing and replaced by defaultValue.
+     */
+    private static long getLong(String section, String key, boolean internal, long defaultValue, long min) {
+        String val = get(section, key, internal);
+        if (val == null || val.trim().equals("")) return defaultValue;
+        try {
+            long parsed = Long.parseLong(val.trim());
+            return parsed >= min ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            Logger.debug("Invalid " + key + " in config: " + val);
+            return defaultValue;
+        }
+    }
+
     private static String removeNulls(String s) {
         if (s == null) return null;
         return s.replace("\0", "");
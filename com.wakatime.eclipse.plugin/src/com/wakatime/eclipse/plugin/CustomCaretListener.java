@@ -11,15 +11,29 @@ package com.wakatime.eclipse.plugin;
 
 import org.eclipse.swt.custom.CaretEvent;
 import org.eclipse.swt.custom.CaretListener;
+import org.eclipse.ui.IEditorPart;
 
 public class CustomCaretListener implements CaretListener {
 
+    private final IEditorPart editor;
+
+    public CustomCaretListener(IEditorPart editor) {
+        this.editor = editor;
+    }
+
     @Override
     public void caretMoved(CaretEvent event) {
         // Logger.debug("CustomCaretListener.caretMoved");
 
-        Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
-        WakaTime.processHeartbeat(heartbeat);
+        long start = System.nanoTime();
+        try {
+            if (!WakaTime.shouldSendHeartbeat(editor, false)) return;
+
+            Heartbeat heartbeat = WakaTime.getHeartbeat(editor, false);
+            WakaTime.processHeartbeat(heartbeat);
+        } finally {
+            Metrics.UI_CARET.recordSince(start);
+        }
     }
 
 }
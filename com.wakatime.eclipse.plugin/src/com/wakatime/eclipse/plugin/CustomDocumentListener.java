@@ -11,9 +11,16 @@ package com.wakatime.eclipse.plugin;
 
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.ui.IEditorPart;
 
 public class CustomDocumentListener implements IDocumentListener {
 
+    private final IEditorPart editor;
+
+    public CustomDocumentListener(IEditorPart editor) {
+        this.editor = editor;
+    }
+
     @Override
     public void documentAboutToBeChanged(DocumentEvent event) {
         // noop
@@ -21,8 +28,15 @@ public class CustomDocumentListener implements IDocumentListener {
 
     @Override
     public void documentChanged(DocumentEvent event) {
-        Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
-        WakaTime.processHeartbeat(heartbeat);
+        long start = System.nanoTime();
+        try {
+            if (!WakaTime.shouldSendHeartbeat(editor, false)) return;
+
+            Heartbeat heartbeat = WakaTime.getHeartbeat(editor, false);
+            WakaTime.processHeartbeat(heartbeat);
+        } finally {
+            Metrics.UI_DOCUMENT.recordSince(start);
+        }
     }
 
 }
@@ -43,15 +43,17 @@ public class CustomExecutionListener implements IExecutionListener {
         // Logger.debug("CustomExecutionListener.preExecute: " + commandId);
         if (!Arrays.asList(buildCommands).contains(commandId)) return;
 
+        long start = System.nanoTime();
+
         final Heartbeat heartbeat = WakaTime.getHeartbeat(null, false, true);
-        WakaTime.getDefault().debouncer.debounce("manual-build", new Runnable() {
+        WakaTime.getDefault().scheduler.debounce("manual-build", new Runnable() {
             @Override public void run() {
-                // TODO: set a periodic timer to send heartbeats for long builds when user left for coffee
                 WakaTime.getDefault().isBuilding = true;
                 WakaTime.processHeartbeat(heartbeat);
                 WakaTime.startWatchingBuild();
             }
         }, WakaTime.BUILD_THRESHOLD, TimeUnit.SECONDS);
+        Metrics.UI_COMMAND.recordSince(start);
     }
 
     @Override
@@ -59,22 +61,25 @@ public class CustomExecutionListener implements IExecutionListener {
         // Logger.debug("CustomExecutionListener.postExecuteSuccess: " + commandId);
         if (!Arrays.asList(postExecCommands).contains(commandId)) return;
 
+        long start = System.nanoTime();
         final boolean isWrite = commandId.equals(IWorkbenchCommandConstants.FILE_SAVE);
 
         if (Arrays.asList(buildCommands).contains(commandId)) {
             final Heartbeat heartbeat = WakaTime.getHeartbeat(null, isWrite, false);
-            WakaTime.getDefault().debouncer.debounce("manual-build", new Runnable() {
+            WakaTime.getDefault().scheduler.debounce("manual-build", new Runnable() {
                 @Override public void run() {
                     WakaTime.getDefault().isBuilding = false;
                     WakaTime.processHeartbeat(heartbeat);
                     WakaTime.stopWatchingBuild();
                 }
             }, 1, TimeUnit.MILLISECONDS);
+            Metrics.UI_COMMAND.recordSince(start);
             return;
         }
 
         Heartbeat heartbeat = WakaTime.getHeartbeat(null, isWrite);
         WakaTime.processHeartbeat(heartbeat);
+        Metrics.UI_COMMAND.recordSince(start);
     }
 
     @Override
@@ -86,7 +91,7 @@ public class CustomExecutionListener implements IExecutionListener {
         if (!Arrays.asList(buildCommands).contains(commandId)) return;
 
         final Heartbeat heartbeat = WakaTime.getHeartbeat(null, false, false);
-        WakaTime.getDefault().debouncer.debounce("manual-build", new Runnable() {
+        WakaTime.getDefault().scheduler.debounce("manual-build", new Runnable() {
             @Override public void run() {
                 WakaTime.getDefault().isBuilding = false;
                 WakaTime.processHeartbeat(heartbeat);
@@ -11,15 +11,29 @@ package com.wakatime.eclipse.plugin;
 
 import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseListener;
+import org.eclipse.ui.IEditorPart;
 
 public class CustomMouseListener implements MouseListener {
 
+    private final IEditorPart editor;
+
+    public CustomMouseListener(IEditorPart editor) {
+        this.editor = editor;
+    }
+
     @Override
     public void mouseDown(MouseEvent e) {
         // Logger.debug("CustomMouseListener.mouseDown");
 
-        Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
-        WakaTime.processHeartbeat(heartbeat);
+        long start = System.nanoTime();
+        try {
+            if (!WakaTime.shouldSendHeartbeat(editor, false)) return;
+
+            Heartbeat heartbeat = WakaTime.getHeartbeat(editor, false);
+            WakaTime.processHeartbeat(heartbeat);
+        } finally {
+            Metrics.UI_MOUSE.recordSince(start);
+        }
     }
 
     @Override
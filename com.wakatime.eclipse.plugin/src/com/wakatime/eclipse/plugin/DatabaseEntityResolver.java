@@ -0,0 +1,75 @@
+/* ==========================================================
+File:        DatabaseEntityResolver.java
+Description: Finds the entity for DBeaver database editors.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.ui.IEditorInput;
+
+/**
+ * Resolves DatabaseEditorInput.getDatabaseObject() once per editor input
+ * class and keeps the result as a MethodHandle, or a marker when the
+ * class is not a DBeaver database input. DBeaver is not a dependency, so
+ * the class is matched by name.
+ */
+public class DatabaseEntityResolver {
+    private static final String DATABASE_EDITOR_INPUT = "org.jkiss.dbeaver.ui.editors.DatabaseEditorInput";
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    // stands in for classes without a getDatabaseObject accessor
+    private static final MethodHandle NONE = MethodHandles.constant(Object.class, null);
+
+    private static final ConcurrentHashMap<Class<?>, MethodHandle> accessors = new ConcurrentHashMap<Class<?>, MethodHandle>();
+
+    /**
+     * Returns the database object name for DBeaver database editors, or
+     * null for any other input.
+     */
+    public static String getEntity(IEditorInput input) {
+        MethodHandle accessor = getAccessor(input.getClass());
+        if (accessor == NONE) return null;
+
+        try {
+            Object databaseObject = (Object) accessor.invokeExact((Object) input);
+            return databaseObject != null ? databaseObject.toString() : null;
+        } catch (Throwable e) {
+            Logger.error(e.toString());
+            return null;
+        }
+    }
+
+    private static MethodHandle getAccessor(Class<?> inputClass) {
+        MethodHandle accessor = accessors.get(inputClass);
+        if (accessor == null) {
+            accessor = findAccessor(inputClass);
+            accessors.put(inputClass, accessor);
+        }
+        return accessor;
+    }
+
+    private static MethodHandle findAccessor(Class<?> inputClass) {
+        for (Class<?> c = inputClass; c != null; c = c.getSuperclass()) {
+            if (!c.getName().equals(DATABASE_EDITOR_INPUT)) continue;
+            try {
+                Method method = c.getMethod("getDatabaseObject");
+                method.setAccessible(true);
+                return MethodHandles.lookup().unreflect(method).asType(ACCESSOR_TYPE);
+            } catch (Exception e) {
+                Logger.error(e);
+                return NONE;
+            }
+        }
+        return NONE;
+    }
+}
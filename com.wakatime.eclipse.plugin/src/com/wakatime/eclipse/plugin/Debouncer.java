@@ -1,32 +1,207 @@
 package com.wakatime.eclipse.plugin;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.HashMap;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs the last task debounced for a key once its delay has passed
+ * without another call for the same key.
+ *
+ * Pending keys sit in a hashed timing wheel driven by one thread. Each
+ * key keeps a single entry which is moved to its new slot when debounced
+ * again, so rescheduling allocates nothing and leaves no cancelled tasks
+ * behind. A task which is already running is never interrupted; debouncing
+ * its key again schedules the next run. The thread sleeps while nothing
+ * is pending.
+ */
 public class Debouncer<T> {
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final ConcurrentHashMap<String, Future<Object>> delayedMap = new ConcurrentHashMap<String, Future<Object>>();
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 512;
 
-    public void debounce(final String key, final Runnable runnable, long delay, TimeUnit unit) {
-        final Future<Object> prev = delayedMap.put(key, (Future<Object>) scheduler.schedule(new Runnable() {
+    private static class Entry {
+        Runnable runnable;
+        long deadline;
+
+        // links within the wheel slot, while pending
+        Entry prev;
+        Entry next;
+        int slot = -1;
+
+        // set while the entry waits to be run by the wheel thread
+        Runnable firing;
+        Entry nextExpired;
+    }
+
+    private final Entry[] wheel = new Entry[WHEEL_SIZE];
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    private final long startNanos = System.nanoTime();
+    private long lastTick = 0;
+    private int pending = 0;
+    private boolean stopped = false;
+    private final Thread thread;
+
+    public Debouncer() {
+        this(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "WakaTime Debouncer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public Debouncer(ThreadFactory threadFactory) {
+        thread = threadFactory.newThread(new Runnable() {
             @Override
             public void run() {
+                loop();
+            }
+        });
+        thread.start();
+    }
+
+    public void debounce(String key, Runnable runnable, long delay, TimeUnit unit) {
+        long delayTicks = Math.max(1, (unit.toNanos(delay) + TICK_NANOS - 1) / TICK_NANOS);
+        synchronized (this) {
+            if (stopped) return;
+
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+
+            long now = currentTick();
+            if (entry.slot >= 0) {
+                unlink(entry);
+                pending--;
+                Metrics.DEBOUNCER_RESCHEDULES.increment();
+            }
+            if (pending == 0) {
+                // the wheel thread was idle, start scanning from now
+                lastTick = now;
+                notifyAll();
+            }
+            entry.runnable = runnable;
+            entry.deadline = now + delayTicks;
+            link(entry, (int) (entry.deadline & (WHEEL_SIZE - 1)));
+            pending++;
+        }
+    }
+
+    /**
+     * Number of keys waiting to run.
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            for (int i = 0; i < WHEEL_SIZE; i++) wheel[i] = null;
+            entries.clear();
+            pending = 0;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits for a task which was already running at shutdown to finish.
+     */
+    public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        thread.join(Math.max(1, unit.toMillis(timeout)));
+    }
+
+    private void loop() {
+        while (true) {
+            Entry expired;
+            synchronized (this) {
                 try {
-                    runnable.run();
-                } finally {
-                    delayedMap.remove(key);
+                    while (!stopped && pending == 0) wait();
+                    if (stopped) return;
+
+                    long now = currentTick();
+                    if (now == lastTick) {
+                        long sleep = startNanos + (lastTick + 1) * TICK_NANOS - System.nanoTime();
+                        if (sleep > 0) TimeUnit.NANOSECONDS.timedWait(this, sleep);
+                        continue;
+                    }
+                    expired = expire(now);
+                    lastTick = now;
+                } catch (InterruptedException e) {
+                    return;
                 }
             }
-        }, delay, unit));
-        if (prev != null) {
-            prev.cancel(true);
+            run(expired);
         }
     }
 
-    public void shutdown() {
-        scheduler.shutdownNow();
+    /**
+     * Unlinks every entry due by now from the slots passed since the last
+     * tick and returns them chained through nextExpired.
+     */
+    private Entry expire(long now) {
+        Entry expired = null;
+        long ticks = Math.min(now - lastTick, WHEEL_SIZE);
+        for (long tick = now - ticks + 1; tick <= now; tick++) {
+            int slot = (int) (tick & (WHEEL_SIZE - 1));
+            Entry entry = wheel[slot];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.deadline <= now) {
+                    unlink(entry);
+                    pending--;
+                    entry.firing = entry.runnable;
+                    entry.runnable = null;
+                    entry.nextExpired = expired;
+                    expired = entry;
+                }
+                entry = next;
+            }
+        }
+        return expired;
+    }
+
+    private void run(Entry expired) {
+        while (expired != null) {
+            Runnable runnable = expired.firing;
+            Entry next = expired.nextExpired;
+            expired.firing = null;
+            expired.nextExpired = null;
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                Logger.error(e);
+            }
+            expired = next;
+        }
+    }
+
+    private void link(Entry entry, int slot) {
+        Entry head = wheel[slot];
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) head.prev = entry;
+        wheel[slot] = entry;
+        entry.slot = slot;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            wheel[entry.slot] = entry.next;
+        }
+        if (entry.next != null) entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.slot = -1;
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startNanos) / TICK_NANOS;
     }
-}
\ No newline at end of file
+}
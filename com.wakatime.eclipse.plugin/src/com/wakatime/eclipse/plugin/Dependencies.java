@@ -11,6 +11,7 @@ package com.wakatime.eclipse.plugin;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -19,20 +20,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.Authenticator;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.net.PasswordAuthentication;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.security.KeyManagementException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -55,6 +58,8 @@ public class Dependencies {
     private static String resourcesLocation = null;
     private static String cliVersion = null;
     private static Boolean alpha = null;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DOWNLOAD_ATTEMPTS = 5;
     private static String originalProxyHost = null;
     private static String originalProxyPort = null;
 
@@ -92,8 +97,30 @@ public class Dependencies {
         if (!Dependencies.isCLIInstalled()) {
             return false;
         }
+        File cli = new File(Dependencies.getCLILocation());
+        if (isCLIVerified(cli)) {
+            Logger.debug("Skipping wakatime-cli version check, verified within the last " + (ConfigFile.getCLIVersionCheckTTL() / 1000) + " seconds.");
+            return false;
+        }
+        String output = cliVersionOutput(cli);
+        if (output != null) {
+            String cliVersion = latestCliVersion();
+            Logger.debug("Latest wakatime-cli version: " + cliVersion);
+            if (output.trim().equals(cliVersion)) {
+                rememberVerifiedCLI(cli, cliVersion);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the binary with --version and returns its output, or null if it
+     * could not be started or exited with an error.
+     */
+    private static String cliVersionOutput(File cli) {
         ArrayList<String> cmds = new ArrayList<String>();
-        cmds.add(Dependencies.getCLILocation());
+        cmds.add(cli.getAbsolutePath());
         cmds.add("--version");
         try {
             Process p = Runtime.getRuntime().exec(cmds.toArray(new String[cmds.size()]));
@@ -110,18 +137,52 @@ public class Dependencies {
             while ((s = stdError.readLine()) != null) {
                 output += s;
             }
-            Logger.debug("wakatime-cli local version output: \"" + output + "\"");
-            Logger.debug("wakatime-cli local version exit code: " + p.exitValue());
+            Logger.debug("wakatime-cli version output from " + cli + ": \"" + output + "\"");
+            Logger.debug("wakatime-cli version exit code: " + p.exitValue());
 
-            if (p.exitValue() == 0) {
-                String cliVersion = latestCliVersion();
-                Logger.debug("Latest wakatime-cli version: " + cliVersion);
-                if (output.trim().equals(cliVersion)) return false;
-            }
+            if (p.exitValue() == 0) return output;
         } catch (Exception e) {
             Logger.warn(e);
         }
-        return true;
+        return null;
+    }
+
+    /**
+     * True when the binary was found up to date within the version check TTL
+     * and has not changed on disk since.
+     */
+    private static boolean isCLIVerified(File cli) {
+        try {
+            String lastChecked = ConfigFile.get("internal", "cli_last_checked", true);
+            if (lastChecked == null) return false;
+            if (System.currentTimeMillis() - Long.parseLong(lastChecked) > ConfigFile.getCLIVersionCheckTTL()) return false;
+
+            String mtime = ConfigFile.get("internal", "cli_verified_mtime", true);
+            String size = ConfigFile.get("internal", "cli_verified_size", true);
+            return mtime != null && size != null
+                && Long.parseLong(mtime) == cli.lastModified()
+                && Long.parseLong(size) == cli.length();
+        } catch (NumberFormatException e) {
+            Logger.debug(e);
+            return false;
+        }
+    }
+
+    private static void rememberVerifiedCLI(File cli, String version) {
+        LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
+        values.put("cli_verified_version", version);
+        values.put("cli_verified_mtime", Long.toString(cli.lastModified()));
+        values.put("cli_verified_size", Long.toString(cli.length()));
+        values.put("cli_last_checked", Long.toString(System.currentTimeMillis()));
+        ConfigFile.set("internal", true, values);
+    }
+
+    /**
+     * Makes the next isCLIOld() ask GitHub and the binary again.
+     */
+    public static void resetCLIVersionCheck() {
+        cliVersion = null;
+        ConfigFile.set("internal", "cli_last_checked", true, "0");
     }
 
     public static String latestCliVersion() {
@@ -139,8 +200,10 @@ public class Dependencies {
             if (m.find()) {
                 cliVersion = m.group(1);
                 if (resp.lastModified != null) {
-                    ConfigFile.set("internal", "cli_version_last_modified", true, resp.lastModified);
-                    ConfigFile.set("internal", "cli_version", true, cliVersion);
+                    LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
+                    values.put("cli_version_last_modified", resp.lastModified);
+                    values.put("cli_version", cliVersion);
+                    ConfigFile.set("internal", true, values);
                 }
                 return cliVersion;
             }
@@ -164,7 +227,14 @@ public class Dependencies {
         return combinePaths(getResourcesLocation(), "wakatime-cli-" + osname() + "-" + architecture() + ext);
     }
 
-    public static void installCLI() {
+    /**
+     * Downloads the latest wakatime-cli and unpacks it into a staging
+     * directory. The current binary keeps serving heartbeats until the new
+     * one has answered --version, then it is replaced with a rename and the
+     * wakatime-cli symlink is pointed at it. Returns false and leaves the
+     * current binary alone if any step fails.
+     */
+    public static boolean installCLI() {
         File resourceDir = new File(getResourcesLocation());
         if (!resourceDir.exists()) resourceDir.mkdirs();
 
@@ -173,26 +243,71 @@ public class Dependencies {
         String url = getCLIDownloadUrl();
         String zipFile = combinePaths(getResourcesLocation(), "wakatime-cli.zip");
 
-        if (downloadFile(url, zipFile)) {
+        if (!downloadFile(url, zipFile)) return false;
 
-            // Delete old wakatime-cli if it exists
-            File file = new File(getCLILocation());
-            recursiveDelete(file);
+        if (!verifyChecksum(zipFile, cliArchiveName())) {
+            new File(zipFile).delete();
+            return false;
+        }
 
-            File outputDir = new File(getResourcesLocation());
-            try {
-                unzip(zipFile, outputDir);
-                if (!isWindows()) {
-                    makeExecutable(getCLILocation());
-                }
-                File oldZipFile = new File(zipFile);
-                oldZipFile.delete();
-            } catch (IOException e) {
-                Logger.warn(e);
+        File cli = new File(getCLILocation());
+        File stagingDir = new File(getResourcesLocation(), "wakatime-cli-staging");
+        recursiveDelete(stagingDir);
+        try {
+            unzip(zipFile, stagingDir);
+            File staged = new File(stagingDir, cli.getName());
+            if (!staged.exists()) {
+                Logger.error("Downloaded archive does not contain " + cli.getName());
+                return false;
             }
+            if (!isWindows()) {
+                makeExecutable(staged.getAbsolutePath());
+            }
+
+            String version = cliVersionOutput(staged);
+            if (version == null) {
+                Logger.error("Downloaded wakatime-cli did not run, keeping the current one.");
+                return false;
+            }
+
+            promote(staged, cli);
+            rememberVerifiedCLI(cli, version.trim());
+            createSymlink(combinePaths(getResourcesLocation(), "wakatime-cli"), cli.getAbsolutePath());
+            Logger.debug("Installed wakatime-cli " + version.trim());
+            return true;
+        } catch (IOException e) {
+            Logger.warn(e);
+            return false;
+        } finally {
+            new File(zipFile).delete();
+            recursiveDelete(stagingDir);
         }
     }
 
+    /**
+     * Renames the staged binary over the current one. The staging directory
+     * is inside the resources folder, so this is a rename on the same file
+     * system and processes already running keep the old binary.
+     */
+    private static void promote(File staged, File cli) throws IOException {
+        try {
+            Files.move(staged.toPath(), cli.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            Logger.debug(e);
+        } catch (IOException e) {
+            if (!isWindows() || !cli.exists()) throw e;
+            // Windows does not allow replacing a running exe, but does allow renaming it
+            File old = new File(cli.getPath() + ".old");
+            recursiveDelete(old);
+            Files.move(cli.toPath(), old.toPath());
+            Files.move(staged.toPath(), cli.toPath());
+            if (!old.delete()) old.deleteOnExit();
+            return;
+        }
+        Files.move(staged.toPath(), cli.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
     private static void checkMissingPlatformSupport() {
         String osname = osname();
         String arch = architecture();
@@ -231,16 +346,96 @@ public class Dependencies {
     }
 
     private static String getCLIDownloadUrl() {
-        return "https://github.com/wakatime/wakatime-cli/releases/download/" + latestCliVersion() + "/wakatime-cli-" + osname() + "-" + architecture() + ".zip";
+        return "https://github.com/wakatime/wakatime-cli/releases/download/" + latestCliVersion() + "/" + cliArchiveName();
+    }
+
+    private static String cliArchiveName() {
+        return "wakatime-cli-" + osname() + "-" + architecture() + ".zip";
+    }
+
+    private static String getChecksumsUrl() {
+        return "https://github.com/wakatime/wakatime-cli/releases/download/" + latestCliVersion() + "/checksums_sha256.txt";
     }
 
+    /**
+     * Compares the archive's SHA-256 with the release's checksums_sha256.txt.
+     * Fails closed: if the checksums can not be fetched, do not list the
+     * archive or do not match, the archive is not installed and the current
+     * wakatime-cli is kept until the next check.
+     */
+    private static boolean verifyChecksum(String file, String archiveName) {
+        String url = getChecksumsUrl();
+        Response resp = getUrlAsString(url, null);
+        if (resp == null || resp.statusCode != 200) {
+            Logger.error("Could not download " + url + (resp != null ? " (status " + resp.statusCode + ")" : "") + ", not installing an unverified wakatime-cli.");
+            return false;
+        }
+        return verifyChecksum(new File(file), archiveName, resp.body);
+    }
+
+    static boolean verifyChecksum(File file, String archiveName, String checksums) {
+        String expected = null;
+        for (String line : checksums.split("\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length != 2) continue;
+            // sha256sum marks binary mode with a *, and the name may include a directory
+            String name = parts[1].startsWith("*") ? parts[1].substring(1) : parts[1];
+            name = name.substring(name.lastIndexOf('/') + 1);
+            if (name.equals(archiveName)) {
+                expected = parts[0].toLowerCase();
+                break;
+            }
+        }
+        if (expected == null) {
+            Logger.error("No published checksum for " + archiveName + ", not installing an unverified wakatime-cli.");
+            return false;
+        }
+
+        try {
+            String actual = sha256(file);
+            if (expected.equals(actual)) return true;
+            Logger.error("Checksum mismatch for " + archiveName + ": expected " + expected + " but downloaded " + actual);
+        } catch (Exception e) {
+            Logger.warn(e);
+        }
+        return false;
+    }
+
+    private static String sha256(File file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Downloads into a .part file named after the url, resuming with a Range
+     * request after a dropped connection or a previous failed run, and
+     * renames the file to saveAs once complete. A partial download of a
+     * different url, such as an older release, is deleted rather than
+     * resumed.
+     */
     public static boolean downloadFile(String url, String saveAs) {
         File outFile = new File(saveAs);
+        File partFile = new File(saveAs + "." + Integer.toHexString(url.hashCode()) + ".part");
 
         // create output directory if does not exist
         File outDir = outFile.getParentFile();
         if (!outDir.exists())
             outDir.mkdirs();
+        deleteStalePartFiles(outFile, partFile);
 
         URL downloadUrl = null;
         try {
@@ -255,50 +450,106 @@ public class Dependencies {
 
         setupProxy();
 
-        ReadableByteChannel rbc = null;
-        FileOutputStream fos = null;
         try {
-            rbc = Channels.newChannel(downloadUrl.openStream());
-            fos = new FileOutputStream(saveAs);
-            fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-            fos.close();
-            teardownProxy();
-            return true;
-        } catch (RuntimeException e) {
-            Logger.warn(e);
-            try {
-                // try downloading without verifying SSL cert (https://github.com/wakatime/jetbrains-wakatime/issues/46)
-                SSLContext SSL_CONTEXT = SSLContext.getInstance("SSL");
-                SSL_CONTEXT.init(null, new TrustManager[] { new LocalSSLTrustManager() }, null);
-                HttpsURLConnection.setDefaultSSLSocketFactory(SSL_CONTEXT.getSocketFactory());
-                HttpsURLConnection conn = (HttpsURLConnection)downloadUrl.openConnection();
-                conn.setRequestProperty("User-Agent", "github.com/wakatime/eclipse-wakatime");
-                InputStream inputStream = conn.getInputStream();
-                fos = new FileOutputStream(saveAs);
-                int bytesRead = -1;
-                byte[] buffer = new byte[4096];
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
+            for (int attempt = 1; attempt <= DOWNLOAD_ATTEMPTS; attempt++) {
+                try {
+                    resumeDownload(downloadUrl, partFile);
+                    Files.move(partFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    return true;
+                } catch (RuntimeException e) {
+                    Logger.warn(e);
+                    // try downloading without verifying SSL cert (https://github.com/wakatime/jetbrains-wakatime/issues/46)
+                    try {
+                        SSLContext SSL_CONTEXT = SSLContext.getInstance("SSL");
+                        SSL_CONTEXT.init(null, new TrustManager[] { new LocalSSLTrustManager() }, null);
+                        HttpsURLConnection.setDefaultSSLSocketFactory(SSL_CONTEXT.getSocketFactory());
+                    } catch (NoSuchAlgorithmException e1) {
+                        Logger.warn(e1);
+                    } catch (KeyManagementException e1) {
+                        Logger.warn(e1);
+                    }
+                } catch (IOException e) {
+                    Logger.warn("Download of " + url + " interrupted at " + partFile.length() + " bytes (attempt " + attempt + " of " + DOWNLOAD_ATTEMPTS + ")", e);
                 }
-                inputStream.close();
-                fos.close();
-                teardownProxy();
-                return true;
-            } catch (NoSuchAlgorithmException e1) {
-                Logger.warn(e1);
-            } catch (KeyManagementException e1) {
-                Logger.warn(e1);
-            } catch (IOException e1) {
-                Logger.warn(e1);
             }
-        } catch (IOException e) {
-            Logger.warn(e);
+        } finally {
+            teardownProxy();
         }
-
-        teardownProxy();
         return false;
     }
 
+    private static void resumeDownload(URL url, File partFile) throws IOException {
+        long existing = partFile.exists() ? partFile.length() : 0;
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty("User-Agent", "github.com/wakatime/eclipse-wakatime");
+        conn.setConnectTimeout(30000);
+        conn.setReadTimeout(30000);
+        if (existing > 0) conn.setRequestProperty("Range", "bytes=" + existing + "-");
+
+        int statusCode = conn.getResponseCode();
+        if (statusCode == 416 && existing > 0) {
+            // nothing left to download, if the server confirms the file is that long
+            long total = contentRangeTotal(conn.getHeaderField("Content-Range"));
+            conn.disconnect();
+            if (total == existing) return;
+            partFile.delete();
+            throw new IOException("Partial download of " + url + " does not match the file on the server, starting over");
+        }
+        if (statusCode != 200 && statusCode != 206) {
+            conn.disconnect();
+            throw new IOException("Unexpected response " + statusCode + " downloading " + url);
+        }
+
+        // a 200 means the server ignored the Range header and sent the whole file
+        boolean append = statusCode == 206;
+        long start = append ? existing : 0;
+        long expected = conn.getContentLengthLong();
+
+        InputStream in = conn.getInputStream();
+        FileOutputStream out = new FileOutputStream(partFile, append);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        if (expected >= 0 && partFile.length() != start + expected) {
+            throw new IOException("Connection closed after " + (partFile.length() - start) + " of " + expected + " bytes");
+        }
+    }
+
+    /**
+     * Returns the total length after the slash of a Content-Range header, or -1.
+     */
+    private static long contentRangeTotal(String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteStalePartFiles(File outFile, File partFile) {
+        File[] files = outFile.getParentFile().listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(outFile.getName() + ".") && name.endsWith(".part") && !file.equals(partFile)) {
+                Logger.debug("Deleting partial download " + file);
+                file.delete();
+            }
+        }
+    }
+
     public static Response getUrlAsString(String url, String lastModified) {
         StringBuilder text = new StringBuilder();
 
@@ -325,10 +576,11 @@ public class Dependencies {
                 teardownProxy();
                 return null;
             }
-            InputStream inputStream = downloadUrl.openStream();
+            InputStream inputStream = conn.getInputStream();
             byte[] buffer = new byte[4096];
-            while (inputStream.read(buffer) != -1) {
-                text.append(new String(buffer, "UTF-8"));
+            int len;
+            while ((len = inputStream.read(buffer)) != -1) {
+                text.append(new String(buffer, 0, len, "UTF-8"));
             }
             inputStream.close();
             if (conn.getResponseCode() == 200) responseLastModified = conn.getHeaderField("Last-Modified");
@@ -351,8 +603,9 @@ public class Dependencies {
                 }
                 InputStream inputStream = conn.getInputStream();
                 byte[] buffer = new byte[4096];
-                while (inputStream.read(buffer) != -1) {
-                    text.append(new String(buffer, "UTF-8"));
+                int len;
+                while ((len = inputStream.read(buffer)) != -1) {
+                    text.append(new String(buffer, 0, len, "UTF-8"));
                 }
                 inputStream.close();
                 if (conn.getResponseCode() == 200) responseLastModified = conn.getHeaderField("Last-Modified");
@@ -417,30 +670,41 @@ public class Dependencies {
         if(!outputDir.exists())
             outputDir.mkdirs();
 
-        byte[] buffer = new byte[1024];
-        ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile));
-        ZipEntry ze = zis.getNextEntry();
+        String outputPath = outputDir.getCanonicalPath() + File.separator;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile), BUFFER_SIZE));
+        try {
+            ZipEntry ze = zis.getNextEntry();
+            while (ze != null) {
+                File newFile = new File(outputDir, ze.getName());
 
-        while (ze != null) {
-            String fileName = ze.getName();
-            File newFile = new File(outputDir, fileName);
+                // refuse entries like ../../.bashrc which would land outside outputDir
+                if (!newFile.getCanonicalPath().startsWith(outputPath)) {
+                    throw new IOException("Zip entry is outside of the target dir: " + ze.getName());
+                }
 
-            if (ze.isDirectory()) {
-                newFile.mkdirs();
-            } else {
-                FileOutputStream fos = new FileOutputStream(newFile.getAbsolutePath());
-                int len;
-                while ((len = zis.read(buffer)) > 0) {
-                    fos.write(buffer, 0, len);
+                if (ze.isDirectory()) {
+                    newFile.mkdirs();
+                } else {
+                    File parent = newFile.getParentFile();
+                    if (parent != null && !parent.exists()) parent.mkdirs();
+                    FileOutputStream fos = new FileOutputStream(newFile);
+                    try {
+                        int len;
+                        while ((len = zis.read(buffer)) > 0) {
+                            fos.write(buffer, 0, len);
+                        }
+                    } finally {
+                        fos.close();
+                    }
                 }
-                fos.close();
-            }
 
-            ze = zis.getNextEntry();
+                ze = zis.getNextEntry();
+            }
+            zis.closeEntry();
+        } finally {
+            zis.close();
         }
-
-        zis.closeEntry();
-        zis.close();
     }
 
     private static void recursiveDelete(File path) {
@@ -0,0 +1,74 @@
+/* ==========================================================
+File:        DiagnosticsDialog.java
+Description: Shows the plugin's metrics.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.resource.JFaceResources;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
+
+public class DiagnosticsDialog extends Dialog {
+    private static final int REFRESH_ID = IDialogConstants.CLIENT_ID + 1;
+    private static final int RESET_ID = IDialogConstants.CLIENT_ID + 2;
+
+    private Text text;
+
+    public DiagnosticsDialog(Shell parentShell) {
+        super(parentShell);
+        setShellStyle(getShellStyle() | SWT.RESIZE);
+    }
+
+    @Override
+    protected void configureShell(Shell shell) {
+        super.configureShell(shell);
+        shell.setText("WakaTime Diagnostics");
+    }
+
+    @Override
+    protected Control createDialogArea(Composite parent) {
+        Composite area = (Composite) super.createDialogArea(parent);
+        text = new Text(area, SWT.MULTI | SWT.READ_ONLY | SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL);
+        text.setFont(JFaceResources.getTextFont());
+        GridData data = new GridData(SWT.FILL, SWT.FILL, true, true);
+        data.widthHint = convertWidthInCharsToPixels(90);
+        data.heightHint = convertHeightInCharsToPixels(30);
+        text.setLayoutData(data);
+        refresh();
+        return area;
+    }
+
+    @Override
+    protected void createButtonsForButtonBar(Composite parent) {
+        createButton(parent, RESET_ID, "Reset", false);
+        createButton(parent, REFRESH_ID, "Refresh", false);
+        createButton(parent, IDialogConstants.OK_ID, IDialogConstants.CLOSE_LABEL, true);
+    }
+
+    @Override
+    protected void buttonPressed(int buttonId) {
+        if (buttonId == RESET_ID) {
+            Metrics.reset();
+            refresh();
+        } else if (buttonId == REFRESH_ID) {
+            refresh();
+        } else {
+            super.buttonPressed(buttonId);
+        }
+    }
+
+    private void refresh() {
+        text.setText(Metrics.report());
+    }
+}
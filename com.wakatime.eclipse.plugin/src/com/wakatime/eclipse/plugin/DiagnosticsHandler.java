@@ -0,0 +1,34 @@
+/* ==========================================================
+File:        DiagnosticsHandler.java
+Description: Opens the diagnostics dialog.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+public class DiagnosticsHandler extends AbstractHandler {
+    /**
+     * The constructor.
+     */
+    public DiagnosticsHandler() {
+    }
+
+    /**
+     * Shows counters, latencies and queue state collected by Metrics.
+     */
+    public Object execute(ExecutionEvent event) throws ExecutionException {
+        IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+        new DiagnosticsDialog(window.getShell()).open();
+        return null;
+    }
+
+}
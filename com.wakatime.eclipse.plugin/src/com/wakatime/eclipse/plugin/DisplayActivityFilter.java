@@ -0,0 +1,95 @@
+/* ==========================================================
+File:        DisplayActivityFilter.java
+Description: Watches user input with one Display-wide filter.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.ui.IEditorPart;
+
+/**
+ * The plugin's only Display filter. Every key press, click, scroll and
+ * shell activation is reported to the IdleTracker.
+ *
+ * With activity_filter enabled it also replaces the per-editor mouse and
+ * caret listeners: the active editor is looked up on key and mouse presses
+ * once the heartbeat throttle would let a heartbeat through, so the cost
+ * does not grow with the number of open editors.
+ */
+public class DisplayActivityFilter implements Listener {
+
+    private static final int[] EVENT_TYPES = { SWT.KeyDown, SWT.MouseDown, SWT.MouseWheel, SWT.Activate };
+
+    private final IdleTracker idleTracker;
+    private final boolean detectEditorActivity;
+    private Display display;
+
+    public DisplayActivityFilter(IdleTracker idleTracker, boolean detectEditorActivity) {
+        this.idleTracker = idleTracker;
+        this.detectEditorActivity = detectEditorActivity;
+    }
+
+    public void install(Display display) {
+        this.display = display;
+        for (int eventType : EVENT_TYPES) display.addFilter(eventType, this);
+        if (detectEditorActivity) Logger.debug("Listening for editor activity with a Display filter");
+    }
+
+    public void uninstall() {
+        final Display display = this.display;
+        this.display = null;
+        if (display == null || display.isDisposed()) return;
+
+        Runnable remove = new Runnable() {
+            public void run() {
+                for (int eventType : EVENT_TYPES) display.removeFilter(eventType, DisplayActivityFilter.this);
+            }
+        };
+        if (display.getThread() == Thread.currentThread()) {
+            remove.run();
+        } else {
+            display.asyncExec(remove);
+        }
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+        long start = System.nanoTime();
+        try {
+            idleTracker.inputReceived();
+            if (detectEditorActivity && (event.type == SWT.KeyDown || event.type == SWT.MouseDown)) onActivity(event);
+        } finally {
+            Metrics.UI_FILTER.recordSince(start);
+        }
+    }
+
+    private void onActivity(Event event) {
+        long now = WakaTime.getCurrentTimestamp();
+
+        // switching editors is covered by partActivated, so only the throttle matters here
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime == null) return;
+        if (!wakatime.lastIsBuilding && wakatime.lastTime + WakaTime.FREQUENCY >= now) return;
+
+        IEditorPart editor = WakaTime.getActiveEditor();
+        if (editor == null) return;
+
+        // ignore typing in views, consoles and dialogs
+        Control control = (Control) editor.getAdapter(Control.class);
+        if (control == null || event.widget != control) return;
+
+        if (!WakaTime.shouldSendHeartbeat(editor, false)) return;
+
+        Heartbeat heartbeat = WakaTime.getHeartbeat(editor, false);
+        WakaTime.processHeartbeat(heartbeat);
+    }
+}
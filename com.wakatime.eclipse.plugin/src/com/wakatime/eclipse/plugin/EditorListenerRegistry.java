@@ -0,0 +1,203 @@
+/* ==========================================================
+File:        EditorListenerRegistry.java
+Description: Tracks the listeners attached to each open editor.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IWorkbenchPartReference;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+/**
+ * Attaches one set of mouse, caret and document listeners per open editor,
+ * keyed by its part reference, and removes them again when the editor is
+ * closed. Opening the same editor twice does not add a second set.
+ * Without control listeners only the document listener is attached, for
+ * when DisplayActivityFilter handles mouse and keyboard activity.
+ */
+public class EditorListenerRegistry {
+
+    private static class Listeners {
+        final IEditorPart editor;
+        Control control;
+        CustomMouseListener mouseListener;
+        CustomCaretListener caretListener;
+        IDocument document;
+        CustomDocumentListener documentListener;
+
+        Listeners(IEditorPart editor) {
+            this.editor = editor;
+        }
+
+        int count() {
+            int count = 0;
+            if (mouseListener != null) count++;
+            if (caretListener != null) count++;
+            if (documentListener != null) count++;
+            return count;
+        }
+    }
+
+    private final HashMap<IWorkbenchPartReference, Listeners> editors = new HashMap<IWorkbenchPartReference, Listeners>();
+    private final boolean controlListeners;
+
+    public EditorListenerRegistry(boolean controlListeners) {
+        this.controlListeners = controlListeners;
+    }
+
+    public void attach(IWorkbenchPartReference partRef, IEditorPart editor) {
+        Listeners listeners;
+        synchronized (editors) {
+            if (editors.containsKey(partRef)) return;
+            listeners = new Listeners(editor);
+            editors.put(partRef, listeners);
+        }
+
+        attachDocument(listeners);
+
+        Control control = controlListeners ? (Control) editor.getAdapter(Control.class) : null;
+        if (control != null && !control.isDisposed()) {
+            listeners.control = control;
+
+            // listen for mouse clicks
+            try {
+                CustomMouseListener mouseListener = new CustomMouseListener(editor);
+                control.addMouseListener(mouseListener);
+                listeners.mouseListener = mouseListener;
+            } catch (Exception e) {
+                Logger.debug(e);
+            }
+
+            // listen for cursor movement and typing
+            if (control instanceof StyledText) {
+                try {
+                    CustomCaretListener caretListener = new CustomCaretListener(editor);
+                    ((StyledText) control).addCaretListener(caretListener);
+                    listeners.caretListener = caretListener;
+                } catch (Exception e) {
+                    Logger.debug(e);
+                }
+            }
+        }
+
+        Logger.debug("Attached listeners to " + partRef.getPartName() + ", " + getEditorCount() + " editors with " + getListenerCount() + " listeners");
+    }
+
+    /**
+     * Moves the document listener to the editor's current document, for
+     * editors which were given a new input.
+     */
+    public void inputChanged(IWorkbenchPartReference partRef) {
+        Listeners listeners;
+        synchronized (editors) {
+            listeners = editors.get(partRef);
+        }
+        if (listeners == null) return;
+
+        detachDocument(listeners);
+        attachDocument(listeners);
+    }
+
+    public void detach(IWorkbenchPartReference partRef) {
+        Listeners listeners;
+        synchronized (editors) {
+            listeners = editors.remove(partRef);
+        }
+        if (listeners == null) return;
+
+        detach(listeners);
+        Logger.debug("Detached listeners from " + partRef.getPartName() + ", " + getEditorCount() + " editors with " + getListenerCount() + " listeners");
+    }
+
+    public void detachAll() {
+        List<Listeners> all;
+        synchronized (editors) {
+            all = new ArrayList<Listeners>(editors.values());
+            editors.clear();
+        }
+        for (Listeners listeners : all) detach(listeners);
+    }
+
+    /**
+     * Number of editors with listeners attached.
+     */
+    public int getEditorCount() {
+        synchronized (editors) {
+            return editors.size();
+        }
+    }
+
+    /**
+     * Number of listeners currently attached across all editors.
+     */
+    public int getListenerCount() {
+        int count = 0;
+        synchronized (editors) {
+            for (Listeners listeners : editors.values()) count += listeners.count();
+        }
+        return count;
+    }
+
+    private void detach(Listeners listeners) {
+        detachDocument(listeners);
+
+        Control control = listeners.control;
+        if (control == null) return;
+        try {
+            if (!control.isDisposed()) {
+                if (listeners.mouseListener != null) control.removeMouseListener(listeners.mouseListener);
+                if (listeners.caretListener != null) ((StyledText) control).removeCaretListener(listeners.caretListener);
+            }
+        } catch (Exception e) {
+            Logger.debug(e);
+        }
+        listeners.mouseListener = null;
+        listeners.caretListener = null;
+        listeners.control = null;
+    }
+
+    private void attachDocument(Listeners listeners) {
+        try {
+            ITextEditor textEditor = (ITextEditor) listeners.editor.getAdapter(ITextEditor.class);
+            if (textEditor == null) return;
+
+            IDocumentProvider provider = textEditor.getDocumentProvider();
+            if (provider == null) return;
+
+            IDocument document = provider.getDocument(textEditor.getEditorInput());
+            if (document == null) return;
+
+            CustomDocumentListener documentListener = new CustomDocumentListener(listeners.editor);
+            document.addDocumentListener(documentListener);
+            listeners.document = document;
+            listeners.documentListener = documentListener;
+        } catch (Exception e) {
+            Logger.debug(e);
+        }
+    }
+
+    private void detachDocument(Listeners listeners) {
+        if (listeners.document != null && listeners.documentListener != null) {
+            try {
+                listeners.document.removeDocumentListener(listeners.documentListener);
+            } catch (Exception e) {
+                Logger.debug(e);
+            }
+        }
+        listeners.document = null;
+        listeners.documentListener = null;
+    }
+}
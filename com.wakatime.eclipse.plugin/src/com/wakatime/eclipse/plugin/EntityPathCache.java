@@ -0,0 +1,100 @@
+/* ==========================================================
+File:        EntityPathCache.java
+Description: Remembers the entity path of recently used editor inputs.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IFileEditorInput;
+import org.eclipse.ui.IPathEditorInput;
+import org.eclipse.ui.IURIEditorInput;
+
+/**
+ * Maps editor inputs, by identity, to their canonical entity path. The
+ * same few files get most heartbeats, so after the first lookup building
+ * a heartbeat does no URI or regex work for the path and reuses the same
+ * interned String.
+ */
+public class EntityPathCache {
+    private static final int MAX_ENTRIES = 32;
+
+    // "/C:/Users/..." as returned by URI.getPath() on Windows
+    private static final Pattern WINDOWS_DRIVE = Pattern.compile("^[\\\\/]([A-Z]:[\\\\/])");
+
+    // compared with == so a lookup never calls equals() or allocates
+    private static final IEditorInput[] inputs = new IEditorInput[MAX_ENTRIES];
+    private static final String[] paths = new String[MAX_ENTRIES];
+    private static int next = 0;
+
+    /**
+     * Returns the canonical path of the file behind input, or null for
+     * inputs which are not files.
+     */
+    public static synchronized String get(IEditorInput input) {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            if (inputs[i] == input) return paths[i];
+        }
+
+        String path = getPath(input);
+        if (path == null) return null;
+        path = canonicalize(path);
+
+        // replace the oldest entry
+        inputs[next] = input;
+        paths[next] = path;
+        next = (next + 1) % MAX_ENTRIES;
+        return path;
+    }
+
+    public static synchronized void clear() {
+        Arrays.fill(inputs, null);
+        Arrays.fill(paths, null);
+        next = 0;
+    }
+
+    public static String canonicalize(String path) {
+        return fixFilePath(path).intern();
+    }
+
+    /**
+     * Strips the leading slash from Windows drive paths. Only runs the
+     * regex when the path can start with a drive, so canonical paths are
+     * returned as is.
+     */
+    public static String fixFilePath(String path) {
+        if (path.length() > 3 && path.charAt(2) == ':') {
+            return WINDOWS_DRIVE.matcher(path).replaceFirst("$1");
+        }
+        return path;
+    }
+
+    private static String getPath(IEditorInput input) {
+        try {
+            if (input instanceof IURIEditorInput) {
+                final URI uri = ((IURIEditorInput) input).getURI();
+                if (uri != null && uri.getPath() != null && !uri.getPath().trim().equals("")) {
+                    return uri.getPath();
+                }
+            } else if (input instanceof IFileEditorInput) {
+                final URI uri = ((IFileEditorInput) input).getFile().getLocationURI();
+                if (uri != null && uri.getPath() != null && !uri.getPath().trim().equals("")) {
+                    return uri.getPath();
+                }
+            } else if (input instanceof IPathEditorInput) {
+                return ((IPathEditorInput) input).getPath().makeAbsolute().toString();
+            }
+        } catch (Exception e) {
+            Logger.error(e);
+        }
+        return null;
+    }
+}
@@ -1,31 +1,29 @@
 package com.wakatime.eclipse.plugin;
 
-import java.math.BigDecimal;
-import java.net.URI;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IWorkspace;
-import org.eclipse.core.resources.IWorkspaceRoot;
-import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.ISelectionProvider;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IWorkbenchPartSite;
-import org.eclipse.ui.part.FileEditorInput;
 import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.eclipse.ui.texteditor.ITextEditor;
 
 public class Heartbeat {
     public String entity;
     public String entityType;
-    public BigDecimal timestamp;
+    // milliseconds since the epoch
+    public long timestamp;
     public boolean isWrite;
     public IProject project;
+    public String projectName;
+    public String projectFolder;
     public Integer lineCount;
     public Integer lineNumber;
     public Integer cursorPosition;
@@ -34,6 +32,16 @@ public class Heartbeat {
     public boolean isUnsavedFile;
     public boolean isUnsavedFile2;
 
+    // identity of the editor input this heartbeat was built from, see WakaTime.shouldSendHeartbeat
+    public Object entityKey;
+
+    private boolean enriched;
+
+    /**
+     * Only reads what must be read on the UI thread: the project handle and
+     * the cursor position. The project name, folder and entity path are
+     * filled in by enrich() on the dispatcher thread.
+     */
     public Heartbeat(String entity, boolean isWrite, IEditorPart activeEditor, boolean isDatabase, Boolean isBuilding) {
         super();
 
@@ -41,27 +49,38 @@ public class Heartbeat {
         this.entityType = "file";
         this.timestamp = WakaTime.getCurrentTimestamp();
         this.isWrite = isWrite;
-        this.setProject(activeEditor);
         if (isBuilding != null) {
             this.isBuilding = isBuilding;
         } else {
             this.isBuilding = WakaTime.getDefault().isBuilding || WakaTime.getDefault().isAutoBuilding;
         }
         this.isUnsavedFile = isDatabase;
-        if (!isDatabase) {
-            this.fixFilePath();
-            this.setFileMetadata(activeEditor);
+        if (activeEditor != null) {
+            IEditorInput input = activeEditor.getEditorInput();
+            this.project = ProjectCache.lookup(entity, input);
+            if (!isDatabase) this.captureSelection(activeEditor, input);
         }
     }
 
-    public void setFileMetadata(IEditorPart activeEditor) {
+    /**
+     * Used when restoring a heartbeat from the journal.
+     */
+    Heartbeat() {
+        super();
+        this.enriched = true;
+    }
+
+    /**
+     * Reads the line count and cursor position while the document can
+     * not change underneath, IDocument is not thread-safe.
+     */
+    private void captureSelection(IEditorPart activeEditor, IEditorInput input) {
         ITextEditor editor = (ITextEditor) activeEditor.getAdapter(ITextEditor.class);
         if (editor == null) return;
 
         IDocumentProvider docProvider = editor.getDocumentProvider();
         if (docProvider == null) return;
 
-        IEditorInput input = activeEditor.getEditorInput();
         if (input == null) return;
 
         IDocument document = docProvider.getDocument(input);
@@ -75,16 +94,14 @@ public class Heartbeat {
         ISelectionProvider selectionProvider = site.getSelectionProvider();
         if (selectionProvider == null) return;
 
-        ITextSelection selection = (ITextSelection) selectionProvider.getSelection();
-        if (selection == null) return;
+        ISelection selection = selectionProvider.getSelection();
+        if (!(selection instanceof ITextSelection)) return;
 
-        int line = selection.getStartLine();
-        if (line < 0) return;
-
-        int offset = selection.getOffset();
+        int offset = ((ITextSelection) selection).getOffset();
         if (offset < 0) return;
 
         try {
+            int line = document.getLineOfOffset(offset);
             int cursor = offset - document.getLineOffset(line);
             if (cursor < 0) return;
 
@@ -96,6 +113,29 @@ public class Heartbeat {
         }
     }
 
+    /**
+     * Resolves the project name and folder and fixes the entity path.
+     * Called once before the heartbeat is sent or journaled, off the UI
+     * thread. Never throws, so a heartbeat is not lost because its project
+     * was closed meanwhile.
+     */
+    public synchronized void enrich() {
+        if (this.enriched) return;
+        this.enriched = true;
+
+        try {
+            ProjectCache.ProjectInfo project = ProjectCache.resolve(this.project);
+            if (project != null) {
+                this.project = project.project;
+                this.projectName = project.name;
+                this.projectFolder = project.folder;
+            }
+            if (!this.isUnsavedFile) this.fixFilePath();
+        } catch (RuntimeException e) {
+            Logger.debug(e);
+        }
+    }
+
     public boolean canSend() {
         if (this.isWrite) return true;
 
@@ -107,7 +147,7 @@ public class Heartbeat {
     }
     
     public boolean enoughTimePassed() {
-        return WakaTime.getDefault().lastTime.add(WakaTime.FREQUENCY).compareTo(this.timestamp) < 0;
+        return WakaTime.getDefault().lastTime + WakaTime.FREQUENCY < this.timestamp;
     }
 
     public String[] toCliCommands() {
@@ -116,22 +156,21 @@ public class Heartbeat {
         cmds.add("--entity");
         cmds.add(this.entity);
         cmds.add("--time");
-        cmds.add(this.timestamp.toPlainString());
+        cmds.add(formatTimestamp(this.timestamp));
         cmds.add("--plugin");
         cmds.add(WakaTime.getDefault().IDE_NAME + "/" + WakaTime.getDefault().ECLIPSE_VERSION + " eclipse-wakatime/" + WakaTime.getDefault().VERSION);
-        if (this.project != null && this.project.getName() != null) {
+        if (this.projectName != null) {
             cmds.add("--project");
-            cmds.add(this.project.getName());
+            cmds.add(this.projectName);
         }
         if (this.isWrite)
             cmds.add("--write");
         if (this.isUnsavedFile) {
             cmds.add("--is-unsaved-entity");
         }
-        String projectFolder = this.getProjectFolder();
-        if (projectFolder != null) {
+        if (this.projectFolder != null) {
             cmds.add("--project-folder");
-            cmds.add(projectFolder);
+            cmds.add(this.projectFolder);
         }
         if (this.isBuilding) {
             cmds.add("--category");
@@ -160,82 +199,85 @@ public class Heartbeat {
         return cmds.toArray(new String[cmds.size()]);
     }
 
-    private void setProject(IEditorPart activeEditor) {
-        if (activeEditor == null) {
-            setDefaultProject();
-            return;
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        appendJson(json, "entity", this.entity);
+        appendJson(json, "type", this.entityType);
+        json.append(",\"time\":").append(formatTimestamp(this.timestamp));
+        json.append(",\"is_write\":").append(this.isWrite);
+        if (this.projectName != null) {
+            appendJson(json, "project", this.projectName);
         }
-
-        IEditorInput input = activeEditor.getEditorInput();
-        if (input == null) {
-            setDefaultProject();
-            return;
+        if (this.projectFolder != null) {
+            appendJson(json, "project_folder", this.projectFolder);
         }
-
-        if (input instanceof FileEditorInput) {
-            IProject project = ((FileEditorInput)input).getFile().getProject();
-            if (project != null && project.getName() != null) {
-                this.project = project;
-                WakaTime.getDefault().lastProject = this.project;
-                return;
-            }
+        if (this.isUnsavedFile) {
+            json.append(",\"is_unsaved_entity\":true");
         }
-
-        IProject project = input.getAdapter(IProject.class);
-        if (project != null && project.getName() != null) {
-            this.project = project;
-            WakaTime.getDefault().lastProject = this.project;
-            return;
+        if (this.isBuilding) {
+            appendJson(json, "category", "building");
         }
-
-        IResource resource = input.getAdapter(IResource.class);
-        if (resource == null) {
-            setDefaultProject();
-            return;
+        if (this.alternateLanguage != null) {
+            appendJson(json, "alternate_language", this.alternateLanguage);
         }
-
-        IProject resourceProject = resource.getProject();
-        if (resourceProject == null || resourceProject.getName() == null) {
-            setDefaultProject();
-            return;
+        if (this.cursorPosition != null) {
+            json.append(",\"cursorpos\":").append(this.cursorPosition);
         }
-
-        this.project = resourceProject;
-        WakaTime.getDefault().lastProject = this.project;
-    }
-
-    private void setDefaultProject() {
-        IProject lastProject = WakaTime.getDefault().lastProject;
-        if (lastProject != null) {
-            this.project = lastProject;
-            return;
+        if (this.lineNumber != null) {
+            json.append(",\"lineno\":").append(this.lineNumber);
         }
-
-        try {
-            IWorkspace workspace = ResourcesPlugin.getWorkspace();
-            IWorkspaceRoot root = workspace.getRoot();
-            IProject[] projects = root.getProjects();
-            for (IProject project : projects) {
-                if (project != null && project.isOpen()) {
-                    this.project = project;
-                    return;
-                }
-            }
-        } catch (Exception e) {
-            Logger.debug(e);
+        if (this.lineCount != null) {
+            json.append(",\"lines\":").append(this.lineCount);
         }
+        return json.append('}').toString();
     }
 
-    private String getProjectFolder() {
-        if (this.project == null) return null;
+    /**
+     * JSON array of heartbeats, as read by --extra-heartbeats and the bulk API.
+     */
+    public static String toJson(List<Heartbeat> heartbeats) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < heartbeats.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(heartbeats.get(i).toJson());
+        }
+        return json.append(']').toString();
+    }
 
-        URI root = this.project.getLocationURI();
-        if (root == null) return null;
+    /**
+     * Formats milliseconds as the decimal seconds expected by wakatime-cli.
+     */
+    public static String formatTimestamp(long millis) {
+        long fraction = millis % 1000;
+        StringBuilder s = new StringBuilder(16).append(millis / 1000).append('.');
+        if (fraction < 100) s.append('0');
+        if (fraction < 10) s.append('0');
+        return s.append(fraction).toString();
+    }
 
-        return root.getPath();
+    private static void appendJson(StringBuilder json, String key, String value) {
+        if (json.length() > 1) json.append(',');
+        json.append('"').append(key).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
     }
 
     private void fixFilePath() {
-        this.entity = this.entity.replaceFirst("^[\\\\/]([A-Z]:[\\\\/])", "$1");
+        this.entity = EntityPathCache.fixFilePath(this.entity);
     }
 }
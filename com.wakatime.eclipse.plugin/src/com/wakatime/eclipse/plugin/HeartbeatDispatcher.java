@@ -0,0 +1,415 @@
+/* ==========================================================
+File:        HeartbeatDispatcher.java
+Description: Batches heartbeats into a single wakatime-cli call.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects heartbeats for a short window and sends them with one
+ * wakatime-cli process. The first heartbeat of a batch is passed as
+ * arguments, the rest as a JSON array on stdin via --extra-heartbeats.
+ *
+ * The pending queue is bounded. When it is full the oldest non-write
+ * heartbeat is dropped, since a later heartbeat for the same activity
+ * carries the same information. Processes are started from a fixed pool
+ * with a bounded work queue; when that is full the batch is offered again
+ * one batch window later, so a slow CLI never blocks the shared timer
+ * thread. Batches still waiting for the pool at shutdown are journaled.
+ *
+ * Heartbeats arrive as snapshots taken on the UI thread; project lookup,
+ * line numbers and CLI arguments are worked out here, before sending.
+ *
+ * Timers and enrichment run on the plugin-wide Scheduler thread, only
+ * the send pool has threads of its own.
+ *
+ * Each batch needs a permit from the rate limiter. During event storms
+ * such as Save All or a large refactoring, heartbeats without a permit
+ * stay queued and go out merged into the next permitted call.
+ */
+public class HeartbeatDispatcher {
+    static final int SEND_THREADS = 2;
+    private static final int SEND_QUEUE_SIZE = 4;
+
+    private final ArrayDeque<Heartbeat> queue = new ArrayDeque<Heartbeat>();
+    private final ConcurrentLinkedQueue<Heartbeat> toJournal = new ConcurrentLinkedQueue<Heartbeat>();
+    private final Scheduler scheduler;
+    private final HeartbeatJournal journal;
+    private final ThreadPoolExecutor sendExecutor;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ConcurrentLinkedQueue<SendTask> retries = new ConcurrentLinkedQueue<SendTask>();
+    private final AtomicBoolean retryScheduled = new AtomicBoolean(false);
+    private final RateLimiter rateLimiter;
+    private volatile boolean rateLimited = false;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong saturated = new AtomicLong();
+    private final long batchWindow;
+    private final int maxBatchSize;
+    private final int capacity;
+    private final ApiSender apiSender;
+
+    /**
+     * With an apiSender, batches are posted to the API and only the
+     * heartbeats it could not deliver fall back to wakatime-cli. Heartbeats
+     * wakatime-cli could not be started for are kept in journal.
+     */
+    public HeartbeatDispatcher(Scheduler scheduler, HeartbeatJournal journal, long batchWindow, int maxBatchSize, int capacity, RateLimiter rateLimiter, ApiSender apiSender) {
+        this.scheduler = scheduler;
+        this.journal = journal;
+        this.rateLimiter = rateLimiter;
+        this.apiSender = apiSender;
+        this.batchWindow = batchWindow;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.capacity = Math.max(this.maxBatchSize, capacity);
+        this.sendExecutor = new ThreadPoolExecutor(SEND_THREADS, SEND_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(SEND_QUEUE_SIZE), scheduler.threadFactory("WakaTime Sender"), new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        saturated.incrementAndGet();
+                        retries.add((SendTask) r);
+                        if (!executor.isShutdown()) scheduleRetry();
+                    }
+                });
+        // started up front so the Diagnostics thread count is fixed
+        this.sendExecutor.prestartAllCoreThreads();
+    }
+
+    public void enqueue(Heartbeat heartbeat) {
+        int size;
+        synchronized (queue) {
+            if (queue.size() >= capacity && !evict(heartbeat)) {
+                dropped.incrementAndGet();
+                Logger.debug("Heartbeat queue full, dropped heartbeat for " + heartbeat.entity);
+                return;
+            }
+            queue.add(heartbeat);
+            size = queue.size();
+        }
+
+        try {
+            if (size >= maxBatchSize) {
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(false);
+                    }
+                });
+                return;
+            }
+
+            if (flushScheduled.compareAndSet(false, true)) {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushScheduled.set(false);
+                        flush(false);
+                    }
+                }, batchWindow, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // shutting down, shutdown() flushes what is left
+            flushScheduled.set(false);
+        }
+    }
+
+    /**
+     * Makes room for the incoming heartbeat. Must hold the queue lock.
+     * Returns false if the incoming heartbeat should be dropped instead.
+     */
+    private boolean evict(Heartbeat incoming) {
+        Iterator<Heartbeat> it = queue.iterator();
+        while (it.hasNext()) {
+            if (!it.next().isWrite) {
+                it.remove();
+                dropped.incrementAndGet();
+                return true;
+            }
+        }
+        if (!incoming.isWrite) return false;
+
+        // queue only holds writes, keep the newest ones
+        queue.poll();
+        dropped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Journals a heartbeat while wakatime-cli is not ready, enriching it on
+     * the dispatcher thread rather than the caller's.
+     */
+    public void journal(Heartbeat heartbeat) {
+        toJournal.add(heartbeat);
+        try {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    journalPending();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, there is no other thread left to do it
+            journalPending();
+        }
+    }
+
+    private void journalPending() {
+        Heartbeat heartbeat;
+        while ((heartbeat = toJournal.poll()) != null) {
+            heartbeat.enrich();
+            journal.append(heartbeat);
+        }
+    }
+
+    public boolean hasApiSender() {
+        return apiSender != null;
+    }
+
+    public int getQueueDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    public int getPendingSends() {
+        return sendExecutor.getQueue().size() + sendExecutor.getActiveCount();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSaturatedCount() {
+        return saturated.get();
+    }
+
+    /**
+     * Sends everything queued right away, without asking the rate limiter.
+     */
+    public void flush() {
+        flush(true);
+    }
+
+    private void flush(boolean force) {
+        while (true) {
+            synchronized (queue) {
+                if (queue.isEmpty()) return;
+            }
+            // while the send pool is full, heartbeats wait in the bounded queue
+            if (!force && !retries.isEmpty()) return;
+            if (!force && !rateLimiter.tryAcquire()) {
+                deferFlush();
+                return;
+            }
+
+            // once held back, everything queued goes out in this one call
+            boolean merge = rateLimited;
+            rateLimited = false;
+            int limit = merge ? Integer.MAX_VALUE : maxBatchSize;
+
+            List<Heartbeat> batch = new ArrayList<Heartbeat>();
+            synchronized (queue) {
+                Heartbeat heartbeat;
+                while (batch.size() < limit && (heartbeat = queue.poll()) != null) {
+                    batch.add(heartbeat);
+                }
+            }
+            if (batch.isEmpty()) return;
+            if (merge) {
+                Metrics.HEARTBEATS_MERGED.add(batch.size());
+                Logger.debug("Rate limited, sending " + batch.size() + " merged heartbeats in one call.");
+            }
+            send(batch);
+        }
+    }
+
+    /**
+     * Retries the flush once the rate limiter has a permit again.
+     */
+    private void deferFlush() {
+        rateLimited = true;
+        Metrics.RATE_LIMITED.increment();
+        if (!flushScheduled.compareAndSet(false, true)) return;
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    flush(false);
+                }
+            }, rateLimiter.getDelayMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down, shutdown() flushes what is left
+            flushScheduled.set(false);
+        }
+    }
+
+    /**
+     * Offers batches the send pool had no room for again after a batch window.
+     */
+    private void scheduleRetry() {
+        if (!retryScheduled.compareAndSet(false, true)) return;
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    retryScheduled.set(false);
+                    // batches rejected again are added back to the end
+                    for (int i = retries.size(); i > 0; i--) {
+                        SendTask task = retries.poll();
+                        if (task == null) break;
+                        sendExecutor.execute(task);
+                    }
+                    if (retries.isEmpty()) flush(false);
+                }
+            }, batchWindow, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down, shutdown() journals what is left
+            retryScheduled.set(false);
+        }
+    }
+
+    /**
+     * Sends previously journaled heartbeats in full batches, bypassing the
+     * batch window and the pending queue limit. Runs onSent once every
+     * batch was delivered or, on failure, journaled again; not at all if
+     * the dispatcher shuts down first.
+     */
+    public void sendAll(final List<Heartbeat> heartbeats, final Runnable onSent) {
+        if (heartbeats.isEmpty()) return;
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                Runnable batchSent = null;
+                if (onSent != null) {
+                    final AtomicInteger remaining = new AtomicInteger((heartbeats.size() + maxBatchSize - 1) / maxBatchSize);
+                    batchSent = new Runnable() {
+                        @Override
+                        public void run() {
+                            if (remaining.decrementAndGet() == 0) onSent.run();
+                        }
+                    };
+                }
+                for (int i = 0; i < heartbeats.size(); i += maxBatchSize) {
+                    send(heartbeats.subList(i, Math.min(heartbeats.size(), i + maxBatchSize)), batchSent);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends what is queued and stops the send pool. Batches the pool has
+     * no room for are journaled and sent on the next start. Timers still
+     * pending on the shared scheduler find nothing left to do.
+     */
+    public void shutdown() {
+        journalPending();
+        flush();
+        sendExecutor.shutdown();
+        try {
+            sendExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        SendTask task;
+        while ((task = retries.poll()) != null) {
+            // replayed batches are still in the journal until onSent releases them
+            if (task.onSent == null) journal.append(task.batch);
+        }
+        if (apiSender != null) apiSender.shutdown();
+    }
+
+    private void send(List<Heartbeat> batch) {
+        send(batch, null);
+    }
+
+    private void send(List<Heartbeat> batch, Runnable onSent) {
+        for (Heartbeat heartbeat : batch) heartbeat.enrich();
+        Metrics.HEARTBEATS_DISPATCHED.add(batch.size());
+
+        sendExecutor.execute(new SendTask(batch, onSent));
+    }
+
+    private class SendTask implements Runnable {
+        final List<Heartbeat> batch;
+        final Runnable onSent;
+
+        SendTask(List<Heartbeat> batch, Runnable onSent) {
+            this.batch = batch;
+            this.onSent = onSent;
+        }
+
+        @Override
+        public void run() {
+            List<Heartbeat> undelivered = apiSender != null ? apiSender.send(batch) : batch;
+            if (!undelivered.isEmpty()) execCli(undelivered);
+            if (onSent != null) onSent.run();
+        }
+    }
+
+    private void execCli(List<Heartbeat> batch) {
+        ArrayList<String> args = new ArrayList<String>();
+        for (String cmd : batch.get(0).toCliCommands()) args.add(cmd);
+
+        String extraHeartbeats = batch.size() > 1 ? Heartbeat.toJson(batch.subList(1, batch.size())) : null;
+        if (extraHeartbeats != null) args.add("--extra-heartbeats");
+
+        String[] cmds = args.toArray(new String[args.size()]);
+
+        long start = System.nanoTime();
+        Process proc;
+        try {
+            proc = Runtime.getRuntime().exec(cmds);
+        } catch (Exception e) {
+            Metrics.CLI_EXEC_FAILED.increment();
+            Logger.error(e);
+            journal.append(batch);
+            return;
+        }
+        try {
+            OutputStream stdin = proc.getOutputStream();
+            if (extraHeartbeats != null) {
+                stdin.write(extraHeartbeats.getBytes("UTF-8"));
+                stdin.write('\n');
+            }
+            stdin.close();
+
+            // wait for the process so the pool size bounds how many run at once
+            BufferedReader stdInput = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+            BufferedReader stdError = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
+            String s;
+            while ((s = stdInput.readLine()) != null) {
+                if (!s.trim().equals("")) Logger.debug(s);
+            }
+            while ((s = stdError.readLine()) != null) {
+                if (!s.trim().equals("")) Logger.debug(s);
+            }
+            proc.waitFor();
+            Metrics.CLI_EXEC.recordSince(start);
+            Metrics.exitCode(proc.exitValue());
+            Logger.debug("Command finished with return value: " + proc.exitValue());
+        } catch (Exception e) {
+            Logger.error(e);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/* ==========================================================
+File:        HeartbeatJournal.java
+Description: Keeps heartbeats on disk until wakatime-cli can send them.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of heartbeats which could not be sent,
+ * either because wakatime-cli is still being installed or because starting
+ * it failed. Replayed in bulk once the CLI is ready.
+ *
+ * Each record is [int length][int crc32][payload]. The length is written
+ * last, so a record torn by a crash reads as a zero length and marks the
+ * end of the journal. Recovery scans records until the first zero length
+ * or checksum mismatch. Records which were replayed have their length
+ * negated, and the journal is reset once every record is replayed. If
+ * heartbeats were appended meanwhile, those are moved to a free journal
+ * file instead, so replayed records do not pile up while offline. A crash
+ * during the move can only send the moved heartbeats twice.
+ *
+ * Every Eclipse or DBeaver process writes its own journal file, the first
+ * free one of eclipse-heartbeats.journal, eclipse-heartbeats-1.journal and
+ * so on, which it keeps locked while running. Files no running process
+ * holds are left over from a crash and are taken over on the next drain.
+ */
+public class HeartbeatJournal {
+    private static final int HEADER_SIZE = 8;
+    private static final byte FORMAT_VERSION = 2;
+    private static final int MAX_FILES = 8;
+
+    // locked instead of the records so the lock never overlaps the mapped region
+    private static final long LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    private static final int FLAG_WRITE = 1;
+    private static final int FLAG_BUILDING = 1 << 1;
+    private static final int FLAG_UNSAVED = 1 << 2;
+    private static final int FLAG_LINE_COUNT = 1 << 3;
+    private static final int FLAG_LINE_NUMBER = 1 << 4;
+    private static final int FLAG_CURSOR = 1 << 5;
+
+    private final File baseFile;
+    private final int capacity;
+    private File file;
+    private MappedByteBuffer buffer;
+    private RandomAccessFile raf;
+    private FileLock lock;
+    private long droppedCount = 0;
+
+    // end of the records returned by the last drain and not released yet
+    private int claimed = 0;
+
+    public HeartbeatJournal(File file, int capacity) {
+        this.baseFile = file;
+        this.capacity = capacity;
+    }
+
+    public synchronized void append(Heartbeat heartbeat) {
+        try {
+            open();
+            if (!write(heartbeat)) {
+                droppedCount++;
+                Logger.debug("Heartbeat journal is full, dropped heartbeat for " + heartbeat.entity);
+            }
+        } catch (IOException e) {
+            Logger.warn(e);
+        }
+    }
+
+    public synchronized void append(List<Heartbeat> heartbeats) {
+        for (Heartbeat heartbeat : heartbeats) append(heartbeat);
+    }
+
+    /**
+     * Reads the journaled heartbeats, including those left by processes
+     * which crashed. They stay in the journal until release() is called
+     * once they were handed off, so a crash before that replays them
+     * again. Returns nothing while a previous drain is not released.
+     */
+    public synchronized List<Heartbeat> drain() {
+        List<Heartbeat> heartbeats = new ArrayList<Heartbeat>();
+        if (claimed > 0) return heartbeats;
+
+        try {
+            open();
+            adoptAbandoned();
+
+            int end = buffer.position();
+            int position = 0;
+            while (position < end) {
+                int length = buffer.getInt(position);
+                if (length > 0) {
+                    try {
+                        heartbeats.add(decode(read(buffer, position, length)));
+                    } catch (IOException e) {
+                        Logger.debug(e);
+                    }
+                }
+                position += HEADER_SIZE + Math.abs(length);
+            }
+            claimed = end;
+        } catch (IOException e) {
+            Logger.warn(e);
+        }
+
+        if (droppedCount > 0) {
+            Logger.warn("Heartbeat journal was full, " + droppedCount + " heartbeats were not saved.", null);
+            droppedCount = 0;
+        }
+        return heartbeats;
+    }
+
+    /**
+     * Marks the heartbeats returned by the last drain as sent.
+     */
+    public synchronized void release() {
+        if (buffer == null || claimed == 0) return;
+
+        int position = 0;
+        while (position < claimed) {
+            int length = buffer.getInt(position);
+            if (length > 0) buffer.putInt(position, -length);
+            position += HEADER_SIZE + Math.abs(length);
+        }
+        if (claimed == buffer.position()) {
+            // nothing was appended since the drain, start over
+            buffer.putInt(0, 0);
+            buffer.position(0);
+        }
+        buffer.force();
+        if (buffer.position() > 0) {
+            try {
+                if (!rotate(claimed)) Logger.debug("No free heartbeat journal file, keeping replayed records in " + file);
+            } catch (IOException e) {
+                Logger.debug(e);
+            }
+        }
+        claimed = 0;
+    }
+
+    public synchronized void close() {
+        if (buffer != null) buffer.force();
+        buffer = null;
+        claimed = 0;
+        if (raf != null) {
+            try {
+                // closing the channel releases the lock
+                raf.close();
+            } catch (IOException e) {
+                Logger.debug(e);
+            }
+            raf = null;
+            lock = null;
+        }
+    }
+
+    /**
+     * Maps the first journal file no other process holds.
+     */
+    private void open() throws IOException {
+        if (buffer != null) return;
+
+        File dir = baseFile.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+
+        for (int i = 0; i < MAX_FILES; i++) {
+            File candidate = journalFile(i);
+            RandomAccessFile candidateRaf = new RandomAccessFile(candidate, "rw");
+            FileLock candidateLock = tryLock(candidateRaf.getChannel());
+            if (candidateLock == null) {
+                candidateRaf.close();
+                continue;
+            }
+
+            file = candidate;
+            raf = candidateRaf;
+            lock = candidateLock;
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.position(recover(buffer, capacity));
+            if (i > 0) Logger.debug("Journaling heartbeats to " + file);
+            return;
+        }
+        throw new IOException("All " + MAX_FILES + " heartbeat journal files are in use");
+    }
+
+    /**
+     * Copies the heartbeats from journal files left by crashed processes
+     * into this one, then clears those files.
+     */
+    private void adoptAbandoned() {
+        for (int i = 0; i < MAX_FILES; i++) {
+            File candidate = journalFile(i);
+            if (candidate.equals(file) || candidate.length() <= HEADER_SIZE) continue;
+
+            RandomAccessFile candidateRaf = null;
+            try {
+                candidateRaf = new RandomAccessFile(candidate, "rw");
+                if (tryLock(candidateRaf.getChannel()) == null) continue;
+
+                int size = (int) Math.min(candidateRaf.length(), Integer.MAX_VALUE);
+                MappedByteBuffer abandoned = candidateRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                int end = recover(abandoned, size);
+                int position = 0;
+                int adopted = 0;
+                while (position < end) {
+                    int length = abandoned.getInt(position);
+                    if (length > 0) {
+                        try {
+                            if (write(decode(read(abandoned, position, length)))) {
+                                adopted++;
+                            } else {
+                                droppedCount++;
+                            }
+                        } catch (IOException e) {
+                            Logger.debug(e);
+                        }
+                    }
+                    position += HEADER_SIZE + Math.abs(length);
+                }
+                buffer.force();
+                abandoned.putInt(0, 0);
+                abandoned.force();
+                if (adopted > 0) Logger.debug("Took over " + adopted + " heartbeats from " + candidate);
+            } catch (IOException e) {
+                Logger.debug(e);
+            } finally {
+                if (candidateRaf != null) {
+                    try {
+                        candidateRaf.close();
+                    } catch (IOException e) {
+                        Logger.debug(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the records from start to the end of the journal into the next
+     * free journal file, after any records it already holds, and then
+     * clears and unlocks the current one. Returns false when no file is
+     * free or has room.
+     */
+    private boolean rotate(int start) throws IOException {
+        int end = buffer.position();
+        for (int i = 0; i < MAX_FILES; i++) {
+            File candidate = journalFile(i);
+            if (candidate.equals(file)) continue;
+
+            RandomAccessFile candidateRaf = new RandomAccessFile(candidate, "rw");
+            FileLock candidateLock = tryLock(candidateRaf.getChannel());
+            if (candidateLock == null) {
+                candidateRaf.close();
+                continue;
+            }
+            MappedByteBuffer mapped = candidateRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            int position = recover(mapped, capacity);
+            if (position + end - start + 4 > capacity) {
+                candidateRaf.close();
+                continue;
+            }
+
+            ByteBuffer live = buffer.duplicate();
+            live.position(start);
+            live.limit(end);
+            ByteBuffer target = mapped.duplicate();
+            target.position(position);
+            target.put(live);
+            mapped.putInt(position + end - start, 0);
+            mapped.position(position + end - start);
+            mapped.force();
+
+            // the records are safe in the new file, the old one only holds replayed ones
+            buffer.putInt(0, 0);
+            buffer.force();
+            raf.close();
+
+            Logger.debug("Moved unsent heartbeats from " + file + " to " + candidate);
+            file = candidate;
+            raf = candidateRaf;
+            lock = candidateLock;
+            buffer = mapped;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Appends a record, returning false when the journal is full.
+     */
+    private boolean write(Heartbeat heartbeat) throws IOException {
+        byte[] payload = encode(heartbeat);
+        int position = buffer.position();
+        if (position + HEADER_SIZE + payload.length + 4 > capacity) return false;
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_SIZE);
+        record.put(payload);
+        buffer.putInt(position + HEADER_SIZE + payload.length, 0);
+        buffer.putInt(position, payload.length);
+        buffer.position(position + HEADER_SIZE + payload.length);
+        return true;
+    }
+
+    private File journalFile(int index) {
+        if (index == 0) return baseFile;
+        String name = baseFile.getName();
+        int dot = name.lastIndexOf('.');
+        String numbered = dot > 0
+            ? name.substring(0, dot) + "-" + index + name.substring(dot)
+            : name + "-" + index;
+        return new File(baseFile.getParentFile(), numbered);
+    }
+
+    /**
+     * Returns null when another process, or this one, holds the file.
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock(LOCK_POSITION, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the end of the last intact record, clearing anything after it.
+     */
+    private static int recover(ByteBuffer buffer, int limit) {
+        int position = 0;
+        while (position + HEADER_SIZE <= limit) {
+            int length = buffer.getInt(position);
+            if (length == 0 || length == Integer.MIN_VALUE) break;
+            int size = Math.abs(length);
+            if (position + HEADER_SIZE + size > limit) break;
+
+            CRC32 crc = new CRC32();
+            crc.update(read(buffer, position, size));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                Logger.debug("Heartbeat journal has a corrupt record at offset " + position + ", discarding the rest.");
+                break;
+            }
+            position += HEADER_SIZE + size;
+        }
+        if (position + 4 <= limit) buffer.putInt(position, 0);
+        return position;
+    }
+
+    private static byte[] read(ByteBuffer buffer, int position, int length) {
+        byte[] payload = new byte[length];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_SIZE);
+        record.get(payload);
+        return payload;
+    }
+
+    private static byte[] encode(Heartbeat heartbeat) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        int flags = 0;
+        if (heartbeat.isWrite) flags |= FLAG_WRITE;
+        if (heartbeat.isBuilding) flags |= FLAG_BUILDING;
+        if (heartbeat.isUnsavedFile) flags |= FLAG_UNSAVED;
+        if (heartbeat.lineCount != null) flags |= FLAG_LINE_COUNT;
+        if (heartbeat.lineNumber != null) flags |= FLAG_LINE_NUMBER;
+        if (heartbeat.cursorPosition != null) flags |= FLAG_CURSOR;
+
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(flags);
+        out.writeLong(heartbeat.timestamp);
+        out.writeUTF(heartbeat.entity);
+        writeNullableUTF(out, heartbeat.entityType);
+        writeNullableUTF(out, heartbeat.projectName);
+        writeNullableUTF(out, heartbeat.projectFolder);
+        writeNullableUTF(out, heartbeat.alternateLanguage);
+        if (heartbeat.lineCount != null) out.writeInt(heartbeat.lineCount);
+        if (heartbeat.lineNumber != null) out.writeInt(heartbeat.lineNumber);
+        if (heartbeat.cursorPosition != null) out.writeInt(heartbeat.cursorPosition);
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Heartbeat decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) throw new IOException("Unknown heartbeat journal record version: " + version);
+
+        int flags = in.readByte();
+        Heartbeat heartbeat = new Heartbeat();
+        heartbeat.timestamp = in.readLong();
+        heartbeat.entity = in.readUTF();
+        heartbeat.entityType = readNullableUTF(in);
+        heartbeat.projectName = readNullableUTF(in);
+        heartbeat.projectFolder = readNullableUTF(in);
+        heartbeat.alternateLanguage = readNullableUTF(in);
+        heartbeat.isWrite = (flags & FLAG_WRITE) != 0;
+        heartbeat.isBuilding = (flags & FLAG_BUILDING) != 0;
+        heartbeat.isUnsavedFile = (flags & FLAG_UNSAVED) != 0;
+        if ((flags & FLAG_LINE_COUNT) != 0) heartbeat.lineCount = in.readInt();
+        if ((flags & FLAG_LINE_NUMBER) != 0) heartbeat.lineNumber = in.readInt();
+        if ((flags & FLAG_CURSOR) != 0) heartbeat.cursorPosition = in.readInt();
+        return heartbeat;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
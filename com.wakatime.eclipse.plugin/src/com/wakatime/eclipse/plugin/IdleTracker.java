@@ -0,0 +1,62 @@
+/* ==========================================================
+File:        IdleTracker.java
+Description: Pauses build keep-alive heartbeats while the user is away.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+/**
+ * Remembers when the user last pressed a key, clicked, scrolled or
+ * activated a workbench shell, as reported by the DisplayActivityFilter.
+ * Keep-alive heartbeats for long builds are skipped once that was longer
+ * than idle_threshold ago, and the next input sends one straight away
+ * instead of waiting for the next timer.
+ */
+public class IdleTracker {
+
+    private final long threshold;
+    private volatile long lastInput = WakaTime.getCurrentTimestamp();
+    private volatile boolean suspended = false;
+
+    public IdleTracker(long threshold) {
+        this.threshold = threshold;
+    }
+
+    public boolean isIdle() {
+        return lastInput + threshold < WakaTime.getCurrentTimestamp();
+    }
+
+    /**
+     * Returns true, and remembers to resume on the next input, when a
+     * keep-alive heartbeat should be skipped because the user is idle.
+     */
+    public boolean suspendIfIdle() {
+        if (!isIdle()) return false;
+        if (!suspended) {
+            suspended = true;
+            Logger.debug("No input for " + (threshold / 1000) + " seconds, pausing build heartbeats.");
+        }
+        return true;
+    }
+
+    /**
+     * Called on the UI thread for every key press, click, scroll and shell activation.
+     */
+    public void inputReceived() {
+        lastInput = WakaTime.getCurrentTimestamp();
+        if (!suspended) return;
+
+        suspended = false;
+        Logger.debug("Input received, resuming build heartbeats.");
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime == null || !(wakatime.isBuilding || wakatime.isAutoBuilding)) return;
+
+        // the keep-alive skipped while idle, on the UI thread where the active editor can be read
+        Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
+        WakaTime.processHeartbeat(heartbeat);
+    }
+}
@@ -9,17 +9,17 @@ public class Logger {
     }
 
     public static void debug(String msg) {
-        if (WakaTime.getDefault().DEBUG)
+        if (isDebug())
             logMessage(msg, Status.INFO, null);
     }
 
     public static void debug(String msg, Exception e) {
-        if (WakaTime.getDefault().DEBUG)
+        if (isDebug())
             logMessage(msg, Status.ERROR, e);
     }
 
     public static void debug(Exception e) {
-        if (WakaTime.getDefault().DEBUG)
+        if (isDebug())
             logMessage("Debug", Status.ERROR, e);
     }
 
@@ -44,7 +44,14 @@ public class Logger {
     }
 
     public static void logMessage(String msg, int level, Exception e) {
-        if (WakaTime.getDefault().logInstance != null)
-            WakaTime.getDefault().logInstance.log(new Status(level, WakaTime.PLUGIN_ID, Status.OK, msg, e));
+        // the plugin is gone once stopped, a send still finishing has nowhere to log
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime != null && wakatime.logInstance != null)
+            wakatime.logInstance.log(new Status(level, WakaTime.PLUGIN_ID, Status.OK, msg, e));
+    }
+
+    private static boolean isDebug() {
+        WakaTime wakatime = WakaTime.getDefault();
+        return wakatime != null && wakatime.DEBUG;
     }
 }
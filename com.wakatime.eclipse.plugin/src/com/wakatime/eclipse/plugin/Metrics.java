@@ -0,0 +1,292 @@
+/* ==========================================================
+File:        Metrics.java
+Description: Counters and latency histograms for the plugin's hot paths.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Cheap always-on instrumentation. Counters are striped across padded
+ * slots so threads do not contend on one cache line, histograms keep
+ * power-of-two nanosecond buckets. Shown by the Diagnostics menu and
+ * registered with JMX as com.wakatime.eclipse.plugin:type=Metrics.
+ */
+public class Metrics {
+
+    // declared before the metrics below, which register themselves here
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    public static final Counter HEARTBEATS_BUILT = counter("heartbeats.built");
+    public static final Counter HEARTBEATS_SUPPRESSED = counter("heartbeats.suppressed");
+    public static final Counter HEARTBEATS_DISPATCHED = counter("heartbeats.dispatched");
+    public static final Counter HEARTBEATS_MERGED = counter("heartbeats.merged");
+    public static final Counter RATE_LIMITED = counter("dispatcher.rate.limited");
+    public static final Counter KEEPALIVES_SUSPENDED = counter("keepalives.suspended");
+    public static final Counter CLI_EXEC_FAILED = counter("cli.exec.failed");
+    public static final Counter API_REQUEST_FAILED = counter("api.request.failed");
+    public static final Counter DEBOUNCER_RESCHEDULES = counter("debouncer.reschedules");
+    public static final Counter CONFIG_READS = counter("config.reads");
+
+    public static final Histogram CLI_EXEC = histogram("cli.exec");
+    public static final Histogram API_REQUEST = histogram("api.request");
+    public static final Histogram UI_CARET = histogram("ui.caret");
+    public static final Histogram UI_MOUSE = histogram("ui.mouse");
+    public static final Histogram UI_DOCUMENT = histogram("ui.document");
+    public static final Histogram UI_PART = histogram("ui.part");
+    public static final Histogram UI_COMMAND = histogram("ui.command");
+    public static final Histogram UI_FILTER = histogram("ui.filter");
+
+    private static final String MBEAN_NAME = "com.wakatime.eclipse.plugin:type=Metrics";
+
+    /**
+     * A counter split over several cache-line padded slots. Each thread
+     * adds to the slot picked by its id and reads sum all slots.
+     */
+    public static class Counter {
+        private static final int PAD = 8;
+        private static final int STRIPES = stripes();
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long n) {
+            long id = Thread.currentThread().getId();
+            int stripe = (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+            cells.addAndGet(stripe * PAD, n);
+        }
+
+        public long get() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) sum += cells.get(i * PAD);
+            return sum;
+        }
+
+        public void reset() {
+            for (int i = 0; i < STRIPES; i++) cells.set(i * PAD, 0);
+        }
+
+        private static int stripes() {
+            int n = 1;
+            while (n < Runtime.getRuntime().availableProcessors() && n < 64) n <<= 1;
+            return n;
+        }
+    }
+
+    /**
+     * Latency histogram with one bucket per power of two nanoseconds.
+     * Quantiles are reported as the upper bound of their bucket.
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final Counter total = new Counter();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            // bucket i holds [2^(i-1), 2^i), bucket 0 holds 0
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            total.add(nanos);
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) count += buckets.get(i);
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return total.get();
+        }
+
+        /**
+         * Upper bound in nanoseconds of the bucket holding the given quantile.
+         */
+        public long getQuantile(double quantile) {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                count += counts[i];
+            }
+            if (count == 0) return 0;
+
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+            total.reset();
+        }
+
+        public String summary() {
+            long count = getCount();
+            if (count == 0) return "count=0";
+            return "count=" + count
+                + " mean=" + formatNanos(getTotalNanos() / count)
+                + " p50<=" + formatNanos(getQuantile(0.5))
+                + " p99<=" + formatNanos(getQuantile(0.99))
+                + " max<=" + formatNanos(getQuantile(1.0));
+        }
+    }
+
+    public static synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public static synchronized Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Counts a wakatime-cli exit code as cli.exit.&lt;code&gt;.
+     */
+    public static void exitCode(int code) {
+        Counter counter = counters.get("cli.exit." + code);
+        if (counter == null) counter = counter("cli.exit." + code);
+        counter.increment();
+    }
+
+    public static Map<String, Long> getCounters() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    public static Map<String, String> getHistograms() {
+        TreeMap<String, String> values = new TreeMap<String, String>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().summary());
+        }
+        return values;
+    }
+
+    public static void reset() {
+        for (Counter counter : counters.values()) counter.reset();
+        for (Histogram histogram : histograms.values()) histogram.reset();
+    }
+
+    /**
+     * Counters, histograms and the current state of the queues and
+     * listeners, one per line.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            report.append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
+        }
+        report.append('\n');
+        for (Map.Entry<String, String> entry : getHistograms().entrySet()) {
+            report.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        report.append('\n');
+
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime != null) {
+            if (wakatime.dispatcher != null) {
+                report.append("dispatcher.queue = ").append(wakatime.dispatcher.getQueueDepth()).append('\n');
+                report.append("dispatcher.pending = ").append(wakatime.dispatcher.getPendingSends()).append('\n');
+                report.append("dispatcher.dropped = ").append(wakatime.dispatcher.getDroppedCount()).append('\n');
+                report.append("dispatcher.saturated = ").append(wakatime.dispatcher.getSaturatedCount()).append('\n');
+            }
+            if (wakatime.scheduler != null) {
+                report.append("scheduler.threads = ").append(wakatime.scheduler.getThreadCount()).append('\n');
+                report.append("scheduler.tasks = ").append(wakatime.scheduler.getTaskCount()).append('\n');
+                report.append("debouncer.pending = ").append(wakatime.scheduler.getDebouncedCount()).append('\n');
+            }
+            if (wakatime.editorListeners != null) {
+                report.append("editors = ").append(wakatime.editorListeners.getEditorCount()).append('\n');
+                report.append("editor.listeners = ").append(wakatime.editorListeners.getListenerCount()).append('\n');
+            }
+            if (wakatime.idleTracker != null) {
+                report.append("idle = ").append(wakatime.idleTracker.isIdle()).append('\n');
+            }
+            report.append("cli.ready = ").append(WakaTime.READY).append('\n');
+        }
+        return report.toString();
+    }
+
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(new StandardMBean(new MetricsMXBean() {
+                public Map<String, Long> getCounters() {
+                    return Metrics.getCounters();
+                }
+
+                public Map<String, String> getHistograms() {
+                    return Metrics.getHistograms();
+                }
+
+                public String getReport() {
+                    return Metrics.report();
+                }
+
+                public void reset() {
+                    Metrics.reset();
+                }
+            }, MetricsMXBean.class, true), name);
+        } catch (Exception e) {
+            Logger.debug(e);
+        }
+    }
+
+    public static void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (Exception e) {
+            Logger.debug(e);
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos == Long.MAX_VALUE) return "inf";
+        if (nanos < 1000) return nanos + "ns";
+        if (nanos < 1000000) return (nanos / 1000) + "us";
+        return (nanos / 1000000) + "ms";
+    }
+}
@@ -0,0 +1,23 @@
+/* ==========================================================
+File:        MetricsMXBean.java
+Description: JMX view of the plugin's metrics.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, String> getHistograms();
+
+    String getReport();
+
+    void reset();
+}
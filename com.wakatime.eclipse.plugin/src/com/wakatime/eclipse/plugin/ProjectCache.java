@@ -0,0 +1,195 @@
+/* ==========================================================
+File:        ProjectCache.java
+Description: Remembers which project a file belongs to.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.part.FileEditorInput;
+
+/**
+ * Maps entity paths to their project name and folder, so building a
+ * heartbeat does not query editor input adapters, walk every project in
+ * the workspace or resolve the project location each time. The cache is
+ * cleared whenever a project is opened, closed, renamed or deleted.
+ */
+public class ProjectCache {
+    private static final int MAX_ENTRIES = 1000;
+
+    public static class ProjectInfo {
+        public final IProject project;
+        public final String name;
+        public final String folder;
+
+        ProjectInfo(IProject project) {
+            this.project = project;
+            this.name = project != null ? project.getName() : null;
+            this.folder = project != null ? getProjectFolder(project) : null;
+        }
+    }
+
+    // marks that no project is open
+    private static final ProjectInfo NONE = new ProjectInfo(null);
+
+    // paths whose editor input does not belong to any project map to null
+    private static final LinkedHashMap<String, IProject> byPath = new LinkedHashMap<String, IProject>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IProject> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private static final HashMap<IProject, ProjectInfo> byProject = new HashMap<IProject, ProjectInfo>();
+    private static ProjectInfo defaultProject = null;
+    private static IResourceChangeListener listener = null;
+
+    /**
+     * Returns the project handle for the file behind input, or null when it
+     * does not belong to a project. Called on the UI thread, so the editor
+     * input is not kept until the heartbeat is sent; only the first lookup
+     * of a path queries the input's adapters.
+     */
+    public static synchronized IProject lookup(String path, IEditorInput input) {
+        if (input == null || path == null) return null;
+        if (byPath.containsKey(path)) return byPath.get(path);
+
+        IProject project = fromInput(input);
+        byPath.put(path, project);
+        return project;
+    }
+
+    /**
+     * Returns the name and folder of project, falling back to the last used
+     * project and then the first open project when it is null. Returns null
+     * when there is no project at all.
+     */
+    public static synchronized ProjectInfo resolve(IProject project) {
+        if (project == null) return getDefault();
+
+        WakaTime.getDefault().lastProject = project;
+        return forProject(project);
+    }
+
+    public static synchronized void clear() {
+        byPath.clear();
+        byProject.clear();
+        defaultProject = null;
+
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime != null && wakatime.lastProject != null && !wakatime.lastProject.isAccessible()) {
+            wakatime.lastProject = null;
+        }
+    }
+
+    public static synchronized void install() {
+        if (listener != null) return;
+        listener = new IResourceChangeListener() {
+            @Override
+            public void resourceChanged(IResourceChangeEvent event) {
+                if (projectsChanged(event.getDelta())) {
+                    Logger.debug("Projects changed, clearing project cache");
+                    clear();
+                }
+            }
+        };
+        try {
+            ResourcesPlugin.getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+        } catch (Exception e) {
+            Logger.debug(e);
+            listener = null;
+        }
+    }
+
+    public static synchronized void uninstall() {
+        if (listener == null) return;
+        try {
+            ResourcesPlugin.getWorkspace().removeResourceChangeListener(listener);
+        } catch (Exception e) {
+            Logger.debug(e);
+        }
+        listener = null;
+        clear();
+    }
+
+    private static boolean projectsChanged(IResourceDelta delta) {
+        if (delta == null) return false;
+        for (IResourceDelta child : delta.getAffectedChildren()) {
+            if (child.getResource().getType() != IResource.PROJECT) continue;
+            if (child.getKind() == IResourceDelta.ADDED || child.getKind() == IResourceDelta.REMOVED) return true;
+            if ((child.getFlags() & (IResourceDelta.OPEN | IResourceDelta.DESCRIPTION)) != 0) return true;
+        }
+        return false;
+    }
+
+    private static ProjectInfo getDefault() {
+        IProject lastProject = WakaTime.getDefault().lastProject;
+        if (lastProject != null) return forProject(lastProject);
+
+        if (defaultProject == null) {
+            defaultProject = NONE;
+            try {
+                IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+                for (IProject project : root.getProjects()) {
+                    if (project != null && project.isOpen()) {
+                        defaultProject = forProject(project);
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                Logger.debug(e);
+            }
+        }
+        return defaultProject != NONE ? defaultProject : null;
+    }
+
+    private static ProjectInfo forProject(IProject project) {
+        ProjectInfo entry = byProject.get(project);
+        if (entry == null) {
+            entry = new ProjectInfo(project);
+            byProject.put(project, entry);
+        }
+        return entry;
+    }
+
+    private static IProject fromInput(IEditorInput input) {
+        if (input instanceof FileEditorInput) {
+            IProject project = ((FileEditorInput)input).getFile().getProject();
+            if (project != null && project.getName() != null) return project;
+        }
+
+        IProject project = (IProject) input.getAdapter(IProject.class);
+        if (project != null && project.getName() != null) return project;
+
+        IResource resource = (IResource) input.getAdapter(IResource.class);
+        if (resource == null) return null;
+
+        IProject resourceProject = resource.getProject();
+        if (resourceProject == null || resourceProject.getName() == null) return null;
+        return resourceProject;
+    }
+
+    private static String getProjectFolder(IProject project) {
+        URI root = project.getLocationURI();
+        if (root == null) return null;
+
+        return root.getPath();
+    }
+}
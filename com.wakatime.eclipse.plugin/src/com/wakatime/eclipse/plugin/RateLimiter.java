@@ -0,0 +1,63 @@
+/* ==========================================================
+File:        RateLimiter.java
+Description: Token bucket limiting how often heartbeats are dispatched.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allows up to limit permits per window, refilled evenly over the window,
+ * so a burst can use the whole bucket but the long-run rate stays at
+ * limit per window. A limit of zero or less never refuses a permit.
+ */
+public class RateLimiter {
+    private final long capacity;
+    private final long nanosPerPermit;
+    private long permits;
+    private long lastRefill;
+
+    public RateLimiter(int limit, long window, TimeUnit unit) {
+        this.capacity = Math.max(0, limit);
+        this.nanosPerPermit = limit > 0 ? Math.max(1, unit.toNanos(window) / limit) : 0;
+        this.permits = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (capacity == 0) return true;
+        refill();
+        if (permits == 0) return false;
+        permits--;
+        return true;
+    }
+
+    /**
+     * Milliseconds until the next permit is available, 0 if one is available now.
+     */
+    public synchronized long getDelayMillis() {
+        if (capacity == 0) return 0;
+        refill();
+        if (permits > 0) return 0;
+        long nanos = lastRefill + nanosPerPermit - System.nanoTime();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos) + 1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long refilled = (now - lastRefill) / nanosPerPermit;
+        if (refilled == 0) return;
+        if (permits + refilled >= capacity) {
+            permits = capacity;
+            lastRefill = now;
+        } else {
+            permits += refilled;
+            lastRefill += refilled * nanosPerPermit;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/* ==========================================================
+File:        Scheduler.java
+Description: Plugin-wide timers for build watching and debouncing.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the plugin's timer threads: one thread for periodic and deferred
+ * work such as build keep-alive heartbeats and the dispatcher's batch
+ * window, and the Debouncer's wheel thread. Both are created once at
+ * startup, so builds starting and finishing all day only add and cancel
+ * tasks. Other plugin threads are created with threadFactory() so they
+ * are named, daemon and counted in getThreadCount().
+ */
+public class Scheduler {
+    private static final int THREADS = 1;
+    private static final long SHUTDOWN_TIMEOUT = 5;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor executor;
+    private final Debouncer<Object> debouncer;
+
+    public Scheduler() {
+        executor = new ScheduledThreadPoolExecutor(THREADS, threadFactory("WakaTime Scheduler"));
+        // cancelled build watches are removed right away instead of waiting for their next run
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.prestartAllCoreThreads();
+        debouncer = new Debouncer<Object>(threadFactory("WakaTime Debouncer"));
+    }
+
+    /**
+     * Creates named daemon threads which are counted in getThreadCount().
+     */
+    public ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return executor.schedule(task, delay, unit);
+    }
+
+    /**
+     * Runs task every period until the returned handle is cancelled.
+     * Exceptions are logged and do not stop later runs.
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    Logger.error(e);
+                }
+            }
+        }, initialDelay, period, unit);
+    }
+
+    public void debounce(String key, Runnable runnable, long delay, TimeUnit unit) {
+        debouncer.debounce(key, runnable, delay, unit);
+    }
+
+    /**
+     * Number of threads started through this scheduler, including the
+     * Debouncer's and the dispatcher's send pool.
+     */
+    public int getThreadCount() {
+        return threadCount.get();
+    }
+
+    /**
+     * Number of periodic and deferred tasks waiting to run.
+     */
+    public int getTaskCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getDebouncedCount() {
+        return debouncer.getPendingCount();
+    }
+
+    /**
+     * Drops pending debounces, timers and periodic tasks, and waits for
+     * tasks already running or submitted with execute() to finish, so none
+     * of them runs after the plugin instance is gone.
+     */
+    public void shutdown() {
+        debouncer.shutdown();
+        executor.shutdown();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT);
+            debouncer.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+            if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
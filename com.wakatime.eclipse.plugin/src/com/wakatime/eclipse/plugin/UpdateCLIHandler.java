@@ -0,0 +1,32 @@
+/* ==========================================================
+File:        UpdateCLIHandler.java
+Description: Checks for a new wakatime-cli version right away.
+Maintainer:  WakaTime <support@wakatime.com>
+License:     BSD, see LICENSE for more details.
+Website:     https://wakatime.com/
+===========================================================*/
+
+
+package com.wakatime.eclipse.plugin;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+
+public class UpdateCLIHandler extends AbstractHandler {
+    /**
+     * The constructor.
+     */
+    public UpdateCLIHandler() {
+    }
+
+    /**
+     * Forgets the cached version check and runs the wakatime-cli check again.
+     */
+    public Object execute(ExecutionEvent event) throws ExecutionException {
+        Dependencies.resetCLIVersionCheck();
+        WakaTime.getDefault().scheduleCLICheck();
+        return null;
+    }
+
+}
@@ -9,33 +9,26 @@ Website:     https://wakatime.com/
 
 package com.wakatime.eclipse.plugin;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
-import java.math.BigDecimal;
-import java.net.URI;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.commands.IExecutionListener;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
-import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
-import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
-import org.eclipse.ui.IFileEditorInput;
 import org.eclipse.ui.IPartService;
-import org.eclipse.ui.IPathEditorInput;
 import org.eclipse.ui.IStartup;
-import org.eclipse.ui.IURIEditorInput;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchPart;
@@ -62,25 +55,33 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
     public static WakaTime plugin;
     public ILog logInstance;
     public boolean DEBUG = false;
-    public static Boolean READY = false;
+    public static volatile Boolean READY = false;
 
     // Listeners
     private static CustomEditorListener editorListener;
     private static IExecutionListener executionListener;
+    private static AutoBuildListener autoBuildListener;
+    public EditorListenerRegistry editorListeners;
+    public DisplayActivityFilter activityFilter;
+    public IdleTracker idleTracker;
 
     // Schedulers
-    public Debouncer<Object> debouncer;
-    public ScheduledExecutorService buildScheduler;
-    public ScheduledExecutorService autoBuildScheduler;
+    public Scheduler scheduler;
+    public HeartbeatDispatcher dispatcher;
+    public HeartbeatJournal journal;
+    private ScheduledFuture<?> buildWatch;
+    private ScheduledFuture<?> autoBuildWatch;
+    private Job cliCheckJob;
 
     // Constants
-    public static final BigDecimal FREQUENCY = new BigDecimal(2 * 60);
+    public static final long FREQUENCY = 2 * 60 * 1000;
     public static final int BUILD_THRESHOLD = 3;
     public final String VERSION = Platform.getBundle(PLUGIN_ID).getVersion().toString();
 
     public String lastFile;
-    public BigDecimal lastTime = new BigDecimal(0);
-    public IProject lastProject;
+    public Object lastEntityKey;
+    public long lastTime = 0;
+    public volatile IProject lastProject;
     public boolean lastIsBuilding = false;
 
     /**
@@ -119,22 +120,47 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
         }
         Logger.debug("Detected " + IDE_NAME + " version: " + ECLIPSE_VERSION);
 
-        editorListener = new CustomEditorListener();
-        debouncer = new Debouncer<Object>();
+        boolean filterEditorActivity = ConfigFile.isActivityFilterEnabled();
+        idleTracker = new IdleTracker(ConfigFile.getIdleThreshold());
+        activityFilter = new DisplayActivityFilter(idleTracker, filterEditorActivity);
+        editorListeners = new EditorListenerRegistry(!filterEditorActivity);
+        editorListener = new CustomEditorListener(editorListeners);
+        scheduler = new Scheduler();
+        journal = new HeartbeatJournal(new File(Dependencies.combinePaths(Dependencies.getResourcesLocation(), "eclipse-heartbeats.journal")), ConfigFile.getHeartbeatJournalSize());
+        ApiSender apiSender = null;
+        if (ConfigFile.isNativeSenderEnabled()) {
+            String cliOnlySetting = ConfigFile.getCLIOnlySetting();
+            if (cliOnlySetting != null) {
+                Logger.warn("Ignoring native_sender because " + cliOnlySetting + " is set, which only wakatime-cli applies.", null);
+            } else {
+                apiSender = new ApiSender(ConfigFile.getApiUrl(), HeartbeatDispatcher.SEND_THREADS);
+            }
+        }
+        RateLimiter rateLimiter = new RateLimiter(ConfigFile.getDispatchRateLimit(), ConfigFile.getDispatchRateWindow(), TimeUnit.SECONDS);
+        dispatcher = new HeartbeatDispatcher(scheduler, journal, ConfigFile.getHeartbeatBatchWindow(), ConfigFile.getHeartbeatBatchSize(), ConfigFile.getHeartbeatQueueSize(), rateLimiter, apiSender);
+        Metrics.registerMBean();
     }
 
     @Override
     public void earlyStartup() {
         final IWorkbench workbench = PlatformUI.getWorkbench();
 
+        String debug = ConfigFile.get("settings", "debug", false);
+        WakaTime.getDefault().DEBUG = debug != null && debug.trim().equals("true");
+
+        // download or upgrade wakatime-cli off the UI thread, heartbeats are journaled until it's ready
+        scheduleCLICheck();
+
+        // forget cached projects when projects are opened, closed, renamed or deleted
+        ProjectCache.install();
+
         workbench.getDisplay().asyncExec(new Runnable() {
             public void run() {
+                long start = System.currentTimeMillis();
                 try {
                     IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
                     if (window == null) return;
 
-                    String debug = ConfigFile.get("settings", "debug", false);
-                    WakaTime.getDefault().DEBUG = debug != null && debug.trim().equals("true");
                     Logger.debug("Initializing WakaTime plugin (https://wakatime.com) v"+VERSION);
 
                     // listen for file saved events
@@ -146,19 +172,20 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
                     String apiKey = ConfigFile.get("settings", "api_key", false);
                     if (apiKey == "") promptForApiKey(window);
 
-                    checkCLI();
-
                     // log file if one is already opened on startup
                     Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
                     WakaTime.processHeartbeat(heartbeat);
 
                     // listen for focused file change
                     if (window.getPartService() != null) window.getPartService().addPartListener(editorListener);
+                    editorListener.attachOpenEditors(window.getActivePage());
+                    activityFilter.install(workbench.getDisplay());
 
                     // listen for auto-builds
-                    WakaTime.setupAutoBuildWatcher();
+                    autoBuildListener = new AutoBuildListener();
+                    autoBuildListener.install();
 
-                    Logger.debug("Finished initializing WakaTime plugin (https://wakatime.com) v"+VERSION);
+                    Logger.debug("Finished initializing WakaTime plugin (https://wakatime.com) v"+VERSION+" in "+(System.currentTimeMillis() - start)+"ms on the UI thread");
                 } catch (Exception e) {
                     Logger.debug(e);
                 }
@@ -171,9 +198,7 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
      * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
      */
     public void stop(BundleContext context) throws Exception {
-        plugin = null;
-        super.stop(context);
-
+        // stop producing heartbeats
         IWorkbench workbench = PlatformUI.getWorkbench();
 
         if (workbench != null) {
@@ -184,7 +209,19 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
             if (window != null && window.getPartService() != null) window.getPartService().removePartListener(editorListener);
         }
 
-        debouncer.shutdown();
+        ProjectCache.uninstall();
+        if (autoBuildListener != null) autoBuildListener.uninstall();
+        if (editorListeners != null) editorListeners.detachAll();
+        if (activityFilter != null) activityFilter.uninstall();
+
+        // timers already queued and queued heartbeats still need the plugin instance
+        if (scheduler != null) scheduler.shutdown();
+        if (dispatcher != null) dispatcher.shutdown();
+        if (journal != null) journal.close();
+        Metrics.unregisterMBean();
+
+        plugin = null;
+        super.stop(context);
     }
 
     public static void promptForApiKey(IWorkbenchWindow window) {
@@ -197,12 +234,45 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
         }
     }
 
-    private void checkCLI() {
+    /**
+     * Runs checkCLI in a background job. Scheduling while a check is running
+     * queues one more run after it instead of running two at once.
+     */
+    public synchronized void scheduleCLICheck() {
+        if (cliCheckJob != null) {
+            cliCheckJob.schedule();
+            return;
+        }
+        cliCheckJob = new Job("Preparing wakatime-cli") {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                long start = System.currentTimeMillis();
+                try {
+                    checkCLI(monitor);
+                } catch (Exception e) {
+                    Logger.error(e);
+                } finally {
+                    monitor.done();
+                }
+                Logger.debug("wakatime-cli bootstrap took " + (System.currentTimeMillis() - start) + "ms");
+                return Status.OK_STATUS;
+            }
+        };
+        cliCheckJob.setPriority(Job.LONG);
+        cliCheckJob.schedule();
+    }
+
+    private void checkCLI(IProgressMonitor monitor) {
+        monitor.beginTask("Checking wakatime-cli version", IProgressMonitor.UNKNOWN);
         if (!Dependencies.isCLIInstalled()) {
+            monitor.subTask("Downloading and installing wakatime-cli");
             Logger.debug("Downloading and installing wakatime-cli...");
-            Dependencies.installCLI();
-            WakaTime.READY = true;
-            Logger.debug("Finished downloading and installing wakatime-cli.");
+            if (Dependencies.installCLI()) {
+                WakaTime.READY = true;
+                Logger.debug("Finished downloading and installing wakatime-cli.");
+            } else {
+                Logger.warn("Could not install wakatime-cli, heartbeats are kept until the next attempt.", null);
+            }
         } else if (Dependencies.isCLIOld()) {
             if (System.getenv("WAKATIME_CLI_LOCATION") != null && !System.getenv("WAKATIME_CLI_LOCATION").trim().isEmpty()) {
                 File wakatimeCLI = new File(System.getenv("WAKATIME_CLI_LOCATION"));
@@ -210,102 +280,89 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
                     Logger.error("$WAKATIME_CLI_LOCATION is out of date, please update it.");
                 }
             } else {
-                Logger.debug("Upgrading wakatime-cli ...");
-                Dependencies.installCLI();
+                // the current binary keeps sending heartbeats while the new one is staged
                 WakaTime.READY = true;
-                Logger.debug("Finished upgrading wakatime-cli.");
+                monitor.subTask("Upgrading wakatime-cli");
+                Logger.debug("Upgrading wakatime-cli ...");
+                if (Dependencies.installCLI()) {
+                    Logger.debug("Finished upgrading wakatime-cli.");
+                } else {
+                    Logger.warn("Could not upgrade wakatime-cli, still using the current version.", null);
+                }
             }
         } else {
             WakaTime.READY = true;
             Logger.debug("wakatime-cli is up to date.");
         }
-        Dependencies.createSymlink(Dependencies.combinePaths(Dependencies.getResourcesLocation(), "wakatime-cli"), Dependencies.getCLILocation());
+        if (Dependencies.isCLIInstalled()) {
+            Dependencies.createSymlink(Dependencies.combinePaths(Dependencies.getResourcesLocation(), "wakatime-cli"), Dependencies.getCLILocation());
+        }
         Logger.debug("wakatime-cli location: " + Dependencies.getCLILocation());
+
+        if (WakaTime.READY) {
+            monitor.subTask("Sending saved heartbeats");
+            replayJournal();
+        }
     }
 
-    private static void setupAutoBuildWatcher() {
-        try {
-            Job.getJobManager().addJobChangeListener(new JobChangeAdapter() {
-                @Override
-                public void aboutToRun(IJobChangeEvent event) {
-                    if (event.getJob().belongsTo(ResourcesPlugin.FAMILY_AUTO_BUILD)) {
-                        // Logger.debug("Auto-build about to run.");
-                        final Heartbeat heartbeat = WakaTime.getHeartbeat(null, false, true);
-                        WakaTime.getDefault().debouncer.debounce("auto-build", new Runnable() {
-                            @Override public void run() {
-                                // TODO: set a periodic timer to send heartbeats for long builds when user left for coffee
-                                WakaTime.getDefault().isAutoBuilding = true;
-                                WakaTime.processHeartbeat(heartbeat);
-                                WakaTime.startWatchingAutoBuild();
-                            }
-                        }, WakaTime.BUILD_THRESHOLD, TimeUnit.SECONDS);
-                    }
-                }
+    private static void replayJournal() {
+        final HeartbeatJournal journal = WakaTime.getDefault().journal;
+        List<Heartbeat> heartbeats = journal.drain();
+        if (heartbeats.isEmpty()) return;
 
-                @Override
-                public void done(IJobChangeEvent event) {
-                    if (event.getJob().belongsTo(ResourcesPlugin.FAMILY_AUTO_BUILD)) {
-                        // Logger.debug("Auto-build completed.");
-                        final Heartbeat heartbeat = WakaTime.getHeartbeat(null, false, false);
-                        WakaTime.getDefault().debouncer.debounce("auto-build", new Runnable() {
-                            @Override public void run() {
-                                WakaTime.getDefault().isAutoBuilding = false;
-                                WakaTime.processHeartbeat(heartbeat);
-                                WakaTime.stopWatchingAutoBuild();
-                            }
-                        }, 1, TimeUnit.MILLISECONDS);
-                    }
-                }
-            });
-        } catch (Exception e) {
-            Logger.debug(e);
-        }
+        Logger.debug("Sending " + heartbeats.size() + " heartbeats saved while wakatime-cli was unavailable.");
+        // the journal keeps them until they are sent, in case Eclipse exits first
+        WakaTime.getDefault().dispatcher.sendAll(heartbeats, new Runnable() {
+            @Override
+            public void run() {
+                journal.release();
+            }
+        });
     }
 
     public static void processHeartbeat(Heartbeat heartbeat) {
         if (heartbeat == null) return;
-        if (!heartbeat.canSend()) return;
+        if (!heartbeat.canSend()) {
+            Metrics.HEARTBEATS_SUPPRESSED.increment();
+            return;
+        }
 
         sendHeartbeat(heartbeat);
 
         WakaTime.getDefault().lastFile = heartbeat.entity;
+        WakaTime.getDefault().lastEntityKey = heartbeat.entityKey;
         WakaTime.getDefault().lastTime = heartbeat.timestamp;
         WakaTime.getDefault().lastIsBuilding = heartbeat.isBuilding;
     }
 
     private static void sendHeartbeat(Heartbeat heartbeat) {
-        if (!WakaTime.READY) return;
+        if (!WakaTime.READY && !WakaTime.getDefault().dispatcher.hasApiSender()) {
+            // keep it until wakatime-cli is installed
+            WakaTime.getDefault().dispatcher.journal(heartbeat);
+            return;
+        }
 
-        final String[] cmds = heartbeat.toCliCommands();
+        WakaTime.getDefault().dispatcher.enqueue(heartbeat);
+    }
 
-        Logger.debug(cmds.toString());
+    /**
+     * Decides from the editor input identity and the time alone whether activity
+     * in this editor could produce a heartbeat which passes Heartbeat.canSend, so
+     * frequent events can skip building the heartbeat.
+     */
+    public static boolean shouldSendHeartbeat(IEditorPart editor, boolean isWrite) {
+        if (editor == null) return false;
+        if (isWrite) return true;
 
-        Runnable r = new Runnable() {
-            public void run() {
-                try {
-                     Process proc = Runtime.getRuntime().exec(cmds);
-                     if (getDefault().DEBUG) {
-                         BufferedReader stdInput = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-                         BufferedReader stdError = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-                         proc.waitFor();
-                         String s;
-                         while ((s = stdInput.readLine()) != null) {
-                             if (!s.trim().equals("")) Logger.debug(s);
-                         }
-                         while ((s = stdError.readLine()) != null) {
-                             if (!s.trim().equals("")) Logger.debug(s);
-                         }
-                         Logger.debug("Command finished with return value: " + proc.exitValue());
-                     }
-                 } catch (Exception e) {
-                     Logger.error(e);
-                 }
-             }
-         };
-         new Thread(r).start();
+        // heartbeats from editor activity are never building heartbeats
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime.lastIsBuilding) return true;
+        if (editor.getEditorInput() != wakatime.lastEntityKey) return true;
+
+        return wakatime.lastTime + WakaTime.FREQUENCY < WakaTime.getCurrentTimestamp();
     }
 
-    private static IEditorPart getActiveEditor() {
+    public static IEditorPart getActiveEditor() {
         IWorkbench workbench = PlatformUI.getWorkbench();
         IWorkbenchWindow window = workbench.getActiveWorkbenchWindow();
         if (window == null) return null;
@@ -333,104 +390,96 @@ public class WakaTime extends AbstractUIPlugin implements IStartup {
         if (activeEditor == null) activeEditor = getActiveEditor();
         if (activeEditor == null) return null;
 
+        Heartbeat heartbeat = buildHeartbeat(activeEditor, isWrite, isBuilding);
+        if (heartbeat == null) return null;
+
+        heartbeat.entityKey = activeEditor.getEditorInput();
+        Metrics.HEARTBEATS_BUILT.increment();
+        return heartbeat;
+    }
+
+    private static Heartbeat buildHeartbeat(IEditorPart activeEditor, boolean isWrite, Boolean isBuilding) {
         IEditorInput editorInput = activeEditor.getEditorInput();
         if (editorInput == null) return null;
 
-        try {
-            if (editorInput instanceof IURIEditorInput) {
-                final URI uri = ((IURIEditorInput) editorInput).getURI();
-                if (uri != null && uri.getPath() != null && !uri.getPath().trim().equals("")) {
-                    return new Heartbeat(uri.getPath(), isWrite, activeEditor, false, isBuilding);
-                }
-            } else if (editorInput instanceof IFileEditorInput) {
-                final URI uri = ((IFileEditorInput) editorInput).getFile().getLocationURI();
-                if (uri != null && uri.getPath() != null && !uri.getPath().trim().equals("")) {
-                    return new Heartbeat(uri.getPath(), isWrite, activeEditor, false, isBuilding);
-                }
-            } else if (editorInput instanceof IPathEditorInput) {
-                return new Heartbeat(((IPathEditorInput) editorInput).getPath().makeAbsolute().toString(), isWrite, activeEditor, false, isBuilding);
-            }
+        String path = EntityPathCache.get(editorInput);
+        if (path != null) return new Heartbeat(path, isWrite, activeEditor, false, isBuilding);
 
-        } catch(Exception e) {
-            Logger.error(e);
-        }
-
-        try {
-            Class C = editorInput.getClass();
-            while (C != null) {
-              if (C.getName().equals("org.jkiss.dbeaver.ui.editors.DatabaseEditorInput")) {
-                  try {
-                        return new Heartbeat(C.getMethod("getDatabaseObject").invoke(editorInput).toString(), isWrite, activeEditor, true, isBuilding);
-                  } catch (Exception e) {
-                      Logger.error(e);
-                    }
-              }
-              C = C.getSuperclass();
-            }
-
-        } catch(Exception e) {
-            Logger.error(e);
-        }
+        String databaseObject = DatabaseEntityResolver.getEntity(editorInput);
+        if (databaseObject != null) return new Heartbeat(databaseObject, isWrite, activeEditor, true, isBuilding);
 
         return null;
     }
 
-    public static BigDecimal getCurrentTimestamp() {
-        return new BigDecimal(String.valueOf(System.currentTimeMillis() / 1000.0));
+    public static long getCurrentTimestamp() {
+        return System.currentTimeMillis();
     }
 
     public static void startWatchingBuild() {
-        if (WakaTime.getDefault().buildScheduler != null) {
-            try {
-                WakaTime.getDefault().buildScheduler.shutdownNow();
-            } catch (Exception e) {
-                Logger.debug(e);
-            }
+        WakaTime wakatime = WakaTime.getDefault();
+        synchronized (wakatime) {
+            if (wakatime.buildWatch != null) wakatime.buildWatch.cancel(false);
+            wakatime.buildWatch = wakatime.scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    WakaTime.sendKeepAliveHeartbeat();
+                    if (!WakaTime.getDefault().isBuilding) WakaTime.stopWatchingBuild();
+                }
+            }, 90, 90, TimeUnit.SECONDS);
         }
-        WakaTime.getDefault().buildScheduler = Executors.newSingleThreadScheduledExecutor();
-        WakaTime.getDefault().buildScheduler.scheduleWithFixedDelay(new Runnable() {
-            @Override
-            public void run() {
-                Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
-                WakaTime.processHeartbeat(heartbeat);
-                if (!WakaTime.getDefault().isBuilding && WakaTime.getDefault().buildScheduler != null) WakaTime.getDefault().buildScheduler.shutdownNow();
-            }
-        }, 90, 90, TimeUnit.SECONDS);
     }
 
     public static void startWatchingAutoBuild() {
-        if (WakaTime.getDefault().autoBuildScheduler != null) {
-            try {
-                WakaTime.getDefault().autoBuildScheduler.shutdownNow();
-            } catch (Exception e) {
-                Logger.debug(e);
-            }
+        WakaTime wakatime = WakaTime.getDefault();
+        synchronized (wakatime) {
+            if (wakatime.autoBuildWatch != null) wakatime.autoBuildWatch.cancel(false);
+            wakatime.autoBuildWatch = wakatime.scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    WakaTime.sendKeepAliveHeartbeat();
+                    if (!WakaTime.getDefault().isAutoBuilding) WakaTime.stopWatchingAutoBuild();
+                }
+            }, 90, 90, TimeUnit.SECONDS);
         }
-        WakaTime.getDefault().autoBuildScheduler = Executors.newSingleThreadScheduledExecutor();
-        WakaTime.getDefault().autoBuildScheduler.scheduleWithFixedDelay(new Runnable() {
-            @Override
-            public void run() {
-                Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
-                WakaTime.processHeartbeat(heartbeat);
-                if (!WakaTime.getDefault().isAutoBuilding && WakaTime.getDefault().autoBuildScheduler != null) WakaTime.getDefault().autoBuildScheduler.shutdownNow();
-            }
-        }, 90, 90, TimeUnit.SECONDS);
     }
 
     public static void stopWatchingBuild() {
-        try {
-            if (WakaTime.getDefault().buildScheduler != null) WakaTime.getDefault().buildScheduler.shutdownNow();
-        } catch (Exception e) {
-            Logger.debug(e);
+        WakaTime wakatime = WakaTime.getDefault();
+        synchronized (wakatime) {
+            if (wakatime.buildWatch != null) wakatime.buildWatch.cancel(false);
+            wakatime.buildWatch = null;
         }
     }
 
     public static void stopWatchingAutoBuild() {
-        try {
-            if (WakaTime.getDefault().autoBuildScheduler != null) WakaTime.getDefault().autoBuildScheduler.shutdownNow();
-        } catch (Exception e) {
-            Logger.debug(e);
+        WakaTime wakatime = WakaTime.getDefault();
+        synchronized (wakatime) {
+            if (wakatime.autoBuildWatch != null) wakatime.autoBuildWatch.cancel(false);
+            wakatime.autoBuildWatch = null;
+        }
+    }
+
+    /**
+     * Sends a heartbeat for the active editor while a build runs, unless
+     * the user has been idle. The active editor is only readable on the UI
+     * thread, so the heartbeat is built there.
+     */
+    private static void sendKeepAliveHeartbeat() {
+        WakaTime wakatime = WakaTime.getDefault();
+        if (wakatime.idleTracker != null && wakatime.idleTracker.suspendIfIdle()) {
+            Metrics.KEEPALIVES_SUSPENDED.increment();
+            return;
         }
+
+        Display display = PlatformUI.getWorkbench().getDisplay();
+        if (display == null || display.isDisposed()) return;
+        display.asyncExec(new Runnable() {
+            public void run() {
+                // keep-alives only keep the session going, they are not categorized as building
+                Heartbeat heartbeat = WakaTime.getHeartbeat(null, false);
+                WakaTime.processHeartbeat(heartbeat);
+            }
+        });
     }
 
     /**